@@ -0,0 +1,380 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+import java.util.concurrent.locks.StampedLock;
+//=====================================================================================================
+/**
+ * TCPServer / UDPServer'ın çok key'li modu için eşzamanlı String -> int tablosu.
+ *
+ * Key'ler hash'in üst bitlerine göre segmentlere dağıtılır. Her segment kendi open-addressing
+ * (linear probing) dizilerini tutar: String[] keys ve int[] values; değerler kutulanmaz, tabloda
+ * Integer ya da Entry nesnesi yoktur. Okumalar StampedLock'un optimistic read'iyle kilit almadan
+ * yapılır, yalnızca aynı segmente o anda yazılıyorsa read lock ile tekrarlanır. Yazmalar sadece
+ * kendi segmentini kilitler.
+ *
+ * handle() server protokolünü (GET NAMES, GET VALUE, SET, QUIT) çalıştırır; böylece TCP ve UDP
+ * server'ları aynı cevapları verir ve Proxy'nin discovery'si tek key'li server'larda olduğu gibi çalışır.
+ * İsteğin başındaki "@<id>" etiketi cevapta geri yollanır (bkz. Proxy.UdpMultiplexer).
+ * Journal verilmişse (-data, bkz. WriteAheadLog) her SET cevaplanmadan önce oraya yazılır.
+ * setCreateOnSet(true) ile (-create) SET bilinmeyen key'i NA yerine yeni key olarak ekler; Proxy'nin
+ * -shard modu yeni key'leri bu sayede sahibi olan node'da oluşturur.
+ */
+public class KeyStore {
+    /** get() sonucu: key yok */
+    public static final long MISSING = Long.MIN_VALUE;
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private volatile Journal journal;
+    private volatile boolean createOnSet;
+    // GET NAMES cevabı; key eklenince sıfırlanır. Sürüm, cevap hazırlanırken eklenen key'i kaçırıp
+    // eski listeyi cache'lememek için
+    private volatile String namesReply;
+    private final AtomicInteger namesVersion = new AtomicInteger();
+
+    public KeyStore() {
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+    }
+
+    /** SET'leri kalıcı yapan log. */
+    public interface Journal {
+        /** Kaydı ekler; segment kilidi altında çağrılır, böylece log sırası değişiklik sırasıyla aynıdır. */
+        long append(String key, int value) throws IOException;
+
+        /** append'in döndürdüğü konuma kadar her şey kalıcı olunca döner. */
+        void awaitDurable(long position) throws IOException;
+    }
+
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    public void setCreateOnSet(boolean createOnSet) {
+        this.createOnSet = createOnSet;
+    }
+
+    // ---------------------------------------------------
+    // Tablo
+    // ---------------------------------------------------
+    // Segment'in dizileri; büyürken yenisi oluşturulup tek seferde değiştirilir
+    private static final class Table {
+        final String[] keys;
+        final int[] values;
+
+        Table(int capacity) {
+            keys = new String[capacity];
+            values = new int[capacity];
+        }
+    }
+
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        Table table = new Table(INITIAL_CAPACITY);
+        int size;
+
+        // Key'in slot'u, yoksa -(boş slot + 1). Doluluk en fazla %50, döngü her zaman boş slota varır.
+        int indexOf(Table t, int mixed, CharSequence s, int from, int to) {
+            int mask = t.keys.length - 1;
+            for (int i = mixed & mask; ; i = (i + 1) & mask) {
+                String key = t.keys[i];
+                if (key == null) return -(i + 1);
+                if (matches(key, s, from, to)) return i;
+            }
+        }
+
+        // Yazma kilidi altında çağrılır
+        void grow() {
+            Table old = table;
+            Table bigger = new Table(old.keys.length * 2);
+            int mask = bigger.keys.length - 1;
+            for (int i = 0; i < old.keys.length; i++) {
+                String key = old.keys[i];
+                if (key == null) continue;
+                int slot = mix(key.hashCode()) & mask;
+                while (bigger.keys[slot] != null) slot = (slot + 1) & mask;
+                bigger.keys[slot] = key;
+                bigger.values[slot] = old.values[i];
+            }
+            table = bigger;
+        }
+    }
+
+    /** Key yoksa MISSING. s[from, to) aralığı String'e çevrilmeden aranır. */
+    public long get(CharSequence s, int from, int to) {
+        int mixed = mix(hash(s, from, to));
+        Segment segment = segmentFor(mixed);
+        long stamp = segment.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            long value = find(segment, mixed, s, from, to);
+            if (segment.lock.validate(stamp)) return value;
+        }
+        stamp = segment.lock.readLock();
+        try {
+            return find(segment, mixed, s, from, to);
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    private static long find(Segment segment, int mixed, CharSequence s, int from, int to) {
+        Table t = segment.table;
+        int index = segment.indexOf(t, mixed, s, from, to);
+        return index >= 0 ? t.values[index] : MISSING;
+    }
+
+    public long get(String key) {
+        return get(key, 0, key.length());
+    }
+
+    /**
+     * Var olan key'in değerini değiştirir; key yoksa create ise ekler (String yalnızca bu durumda
+     * oluşturulur), değilse false. Journal varsa değişiklik kalıcı olunca döner.
+     */
+    public boolean set(CharSequence s, int from, int to, int value, boolean create) throws IOException {
+        int mixed = mix(hash(s, from, to));
+        Segment segment = segmentFor(mixed);
+        Journal log = journal;
+        long position = 0;
+        boolean added = false;
+        long stamp = segment.lock.writeLock();
+        try {
+            Table t = segment.table;
+            int index = segment.indexOf(t, mixed, s, from, to);
+            if (index >= 0) {
+                // Önce log: yazılamazsa değer de değişmez
+                if (log != null) position = log.append(t.keys[index], value);
+                t.values[index] = value;
+            } else {
+                if (!create) return false;
+                String key = s.subSequence(from, to).toString();
+                if (log != null) position = log.append(key, value);
+                insert(segment, mixed, key, value);
+                added = true;
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        if (added) keyAdded();
+        // Group commit: kilit bırakıldıktan sonra beklenir, diğer SET'ler aynı fsync'e katılabilir
+        if (log != null) log.awaitDurable(position);
+        return true;
+    }
+
+    /** Key'i ekler ya da değerini değiştirir; key yeni eklendiyse true. */
+    public boolean put(String key, int value) {
+        int mixed = mix(key.hashCode());
+        Segment segment = segmentFor(mixed);
+        long stamp = segment.lock.writeLock();
+        try {
+            Table t = segment.table;
+            int index = segment.indexOf(t, mixed, key, 0, key.length());
+            if (index >= 0) {
+                t.values[index] = value;
+                return false;
+            }
+            insert(segment, mixed, key, value);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        keyAdded();
+        return true;
+    }
+
+    // Yazma kilidi altında, key'in segmentte olmadığı biliniyorken çağrılır
+    private static void insert(Segment segment, int mixed, String key, int value) {
+        Table t = segment.table;
+        if ((segment.size + 1) * 2 > t.keys.length) {
+            segment.grow();
+            t = segment.table;
+        }
+        int index = segment.indexOf(t, mixed, key, 0, key.length());
+        // Önce değer, sonra key: optimistic okuyan key'i görürse değeri de hazırdır (validate ayrıca korur)
+        t.values[-index - 1] = value;
+        t.keys[-index - 1] = key;
+        segment.size++;
+    }
+
+    private void keyAdded() {
+        namesVersion.incrementAndGet();
+        namesReply = null;
+    }
+
+    public int size() {
+        int total = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                total += segment.size;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return total;
+    }
+
+    /** Her key için bir kez çağırır; segment okunurken o segmente yazılamaz. */
+    public void forEach(ObjIntConsumer<String> action) {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                Table t = segment.table;
+                for (int i = 0; i < t.keys.length; i++) {
+                    if (t.keys[i] != null) action.accept(t.keys[i], t.values[i]);
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /** "OK <n> <key>..." (GET NAMES cevabı) */
+    public String names() {
+        String reply = namesReply;
+        if (reply != null) return reply;
+        int version = namesVersion.get();
+        StringBuilder keys = new StringBuilder();
+        int count = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                for (String key : segment.table.keys) {
+                    if (key == null) continue;
+                    keys.append(' ').append(key);
+                    count++;
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        reply = "OK " + count + keys;
+        if (version == namesVersion.get()) namesReply = reply;
+        return reply;
+    }
+
+    private Segment segmentFor(int mixed) {
+        return segments[mixed >>> (32 - SEGMENT_BITS)];
+    }
+
+    // String.hashCode ile aynı, böylece String key'ler için hashCode cache'i kullanılabilir
+    private static int hash(CharSequence s, int from, int to) {
+        if (s instanceof String && from == 0 && to == s.length()) return s.hashCode();
+        int h = 0;
+        for (int i = from; i < to; i++) h = 31 * h + s.charAt(i);
+        return h;
+    }
+
+    // Üst bitler segmenti, alt bitler slot'u seçer; ikisinin de iyi dağılması için karıştır
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String key, CharSequence s, int from, int to) {
+        if (key.length() != to - from) return false;
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != s.charAt(from + i)) return false;
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------
+    // Yükleme
+    // ---------------------------------------------------
+    /** "<key> <value>" satırları; boş satırlar ve # ile başlayanlar atlanır. Yüklenen key sayısını döner. */
+    public int load(File file) throws IOException {
+        int loaded = 0;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split("\\s+");
+                if (parts.length != 2) {
+                    throw new IOException(file + ":" + lineNumber + ": expected \"<key> <value>\"");
+                }
+                try {
+                    put(parts[0], Integer.parseInt(parts[1]));
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNumber + ": invalid value " + parts[1]);
+                }
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /** Server'ların -key/-value, -keys ve -range parametrelerinden tablo kurar (verilmeyenler null). */
+    public static KeyStore fromOptions(String keyName, int keyValue, String keysFile,
+                                      String rangePrefix, int rangeFrom, int rangeTo) throws IOException {
+        KeyStore store = new KeyStore();
+        if (keyName != null) store.put(keyName, keyValue);
+        if (keysFile != null) store.load(new File(keysFile));
+        if (rangePrefix != null) store.putRange(rangePrefix, rangeFrom, rangeTo);
+        return store;
+    }
+
+    /** prefix+from ... prefix+to (dahil) key'lerini ekler; her key'in değeri kendi numarasıdır. */
+    public void putRange(String prefix, int from, int to) {
+        for (int i = from; i <= to; i++) put(prefix + i, i);
+    }
+
+    // ---------------------------------------------------
+    // Protokol
+    // ---------------------------------------------------
+    /**
+     * Bir komut satırını çalıştırır ve cevabını döner; QUIT için null. Satır "@<id> " ile
+     * başlıyorsa etiket cevabın başına aynen konur ("@<id> <cevap>"); Proxy UDP'de cevabı bu
+     * etiketle isteğine eşleştirir.
+     */
+    public String handle(CharSequence request) {
+        int from = Tokens.skipSpaces(request, 0);
+        int to = Tokens.tokenEnd(request, from);
+        if (from < to && request.charAt(from) == '@') {
+            int commandFrom = Tokens.skipSpaces(request, to);
+            if (commandFrom == request.length()) return "NA";
+            String response = execute(request, commandFrom);
+            return response == null ? null : request.subSequence(from, to) + " " + response;
+        }
+        return execute(request, from);
+    }
+
+    // request[from...] etiketsiz komut
+    private String execute(CharSequence request, int from) {
+        int to = Tokens.tokenEnd(request, from);
+        if (Tokens.is(request, from, to, "GET")) {
+            int typeFrom = Tokens.skipSpaces(request, to);
+            int typeTo = Tokens.tokenEnd(request, typeFrom);
+            if (Tokens.is(request, typeFrom, typeTo, "NAMES")) return names();
+            if (!Tokens.is(request, typeFrom, typeTo, "VALUE")) return "NA";
+            int keyFrom = Tokens.skipSpaces(request, typeTo);
+            int keyTo = Tokens.tokenEnd(request, keyFrom);
+            long value = keyFrom < keyTo ? get(request, keyFrom, keyTo) : MISSING;
+            return value == MISSING ? "NA" : "OK " + value;
+        }
+        if (Tokens.is(request, from, to, "SET")) {
+            int keyFrom = Tokens.skipSpaces(request, to);
+            int keyTo = Tokens.tokenEnd(request, keyFrom);
+            int valueFrom = Tokens.skipSpaces(request, keyTo);
+            int valueTo = Tokens.tokenEnd(request, valueFrom);
+            if (keyFrom == keyTo || valueFrom == valueTo) return "NA";
+            long parsed = Tokens.parseInt(request, valueFrom, valueTo);
+            if (parsed == Long.MIN_VALUE) return "NA";
+            int value = (int) parsed;
+            try {
+                return set(request, keyFrom, keyTo, value, createOnSet) ? "OK" : "NA";
+            } catch (IOException e) {
+                // Kalıcı yapılamayan SET onaylanmaz
+                System.err.println("Write-ahead log error: " + e.getMessage());
+                return "NA";
+            }
+        }
+        if (Tokens.is(request, from, to, "QUIT")) return null;
+        return "NA";
+    }
+}
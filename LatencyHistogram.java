@@ -0,0 +1,113 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+//=====================================================================================================
+/**
+ * HdrHistogram tarzı log-lineer gecikme histogramı (nanosaniye). Her ikinin kuvveti aralığı
+ * 2^SUB_BUCKET_BITS eşit parçaya bölünür, yani kaydedilen değer en fazla ~%0.4 hatayla
+ * saklanır. Sayaçlar AtomicLongArray'de tutulur; birden fazla thread kilitsiz kayıt yapabilir.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^43 ns ≈ 2.4 saat; üstü son kovaya yazılır
+    private static final int MAX_MAGNITUDE = 43;
+    private static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long seen;
+        while (value > (seen = max.get()) && !max.compareAndSet(seen, value)) {
+            // başka bir thread daha büyük bir değer yazmış olabilir, tekrar oku
+        }
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        total.addAndGet(other.total.get());
+        sum.addAndGet(other.sum.get());
+        long seen;
+        long value = other.max.get();
+        while (value > (seen = max.get()) && !max.compareAndSet(seen, value)) {
+            // tekrar oku
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) counts.set(i, 0);
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    public long sum() {
+        return sum.get();
+    }
+
+    /** q ∈ [0, 1]; q'ncü percentile'ın bulunduğu kovanın üst sınırı (kayıt yoksa 0). */
+    public long percentile(double q) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValueAt(i), max.get());
+        }
+        return max.get();
+    }
+
+    /** Değeri value'dan küçük ya da eşit olan kayıt sayısı (Prometheus "le" kovaları için). */
+    public long countAtOrBelow(long value) {
+        int last = indexOf(value);
+        long seen = 0;
+        for (int i = 0; i <= last; i++) seen += counts.get(i);
+        return seen;
+    }
+
+    /** "p50=.. p90=.. p99=.. p99.9=.. max=.." (mikrosaniye) */
+    public String summary() {
+        return String.format(Locale.ROOT, "n=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus p99.99=%.1fus max=%.1fus",
+                count(), mean() / 1e3, percentile(0.50) / 1e3, percentile(0.90) / 1e3, percentile(0.99) / 1e3,
+                percentile(0.999) / 1e3, percentile(0.9999) / 1e3, max() / 1e3);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) return BUCKET_COUNT - 1;
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,417 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+//=====================================================================================================
+/**
+ * Bir proxy'ye (ya da server'a) TCP veya UDP üzerinden yük bindiren araç.
+ *
+ * Closed-loop (-rate 0): her worker bir cevap gelince bir sonraki isteği gönderir; gecikme
+ * gönderimden cevaba kadar ölçülür.
+ * Open-loop (-rate r): istekler r/s hızında sabit bir takvime göre planlanır ve worker'lara
+ * sırayla dağıtılır. Gecikme isteğin planlanan zamanından itibaren ölçülür; böylece yavaşlayan
+ * sistemde geciken gönderimler de gecikmeye yansır (coordinated omission olmaz).
+ * -rate virgülle ayrılmış birden fazla hız alırsa her hız sırayla koşulur ve özet tablo basılır;
+ * doyma noktası, throughput'un hedef hızın altında kaldığı ve p99'un fırladığı satırdır.
+ *
+ * java LoadGenerator -address localhost -port 9000 [-protocol tcp|udp] [-concurrency n]
+ *                    [-rate r1,r2,...] [-duration s] [-warmup s] [-keys k1,k2,...]
+ *                    [-distribution uniform|zipf] [-zipf s] [-setratio f] [-timeout ms]
+ */
+public class LoadGenerator {
+    private String address = "localhost";
+    private int port;
+    private boolean udp = false;
+    private int concurrency = 16;
+    private long[] rates = {0};
+    private long durationMillis = 10000;
+    private long warmupMillis = 2000;
+    private List<String> keys = new ArrayList<>();
+    private boolean zipf = false;
+    private double zipfExponent = 0.99;
+    private double setRatio = 0.1;
+    private int timeoutMillis = 2000;
+    // UDP hedefi "@<id> <komut>" etiketini cevapta geri yolluyor mu (proxy'ler yollar, server'lar yollamaz)
+    private boolean udpTags = false;
+
+    // Zipf için kümülatif olasılıklar (key sırası = popülerlik sırası)
+    private double[] zipfCdf;
+
+    public static void main(String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            for (int i = 0; i < args.length;) {
+                switch (args[i]) {
+                    case "-address":
+                        generator.address = args[i + 1];
+                        i += 2;
+                        break;
+                    case "-port":
+                        generator.port = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-protocol":
+                        generator.udp = args[i + 1].equalsIgnoreCase("udp");
+                        i += 2;
+                        break;
+                    case "-concurrency":
+                        generator.concurrency = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-rate":
+                        String[] rates = args[i + 1].split(",");
+                        generator.rates = new long[rates.length];
+                        for (int r = 0; r < rates.length; r++) generator.rates[r] = Long.parseLong(rates[r]);
+                        i += 2;
+                        break;
+                    case "-duration":
+                        generator.durationMillis = (long) (Double.parseDouble(args[i + 1]) * 1000);
+                        i += 2;
+                        break;
+                    case "-warmup":
+                        generator.warmupMillis = (long) (Double.parseDouble(args[i + 1]) * 1000);
+                        i += 2;
+                        break;
+                    case "-keys":
+                        generator.keys = new ArrayList<>(Arrays.asList(args[i + 1].split(",")));
+                        i += 2;
+                        break;
+                    case "-distribution":
+                        generator.zipf = args[i + 1].equalsIgnoreCase("zipf");
+                        i += 2;
+                        break;
+                    case "-zipf":
+                        generator.zipf = true;
+                        generator.zipfExponent = Double.parseDouble(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-setratio":
+                        generator.setRatio = Double.parseDouble(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-timeout":
+                        generator.timeoutMillis = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    default:
+                        System.err.println("Unknown parameter: " + args[i]);
+                        i++;
+                }
+            }
+            if (generator.port == 0 || generator.concurrency < 1) {
+                System.err.println("Incorrect execution syntax");
+                System.exit(1);
+            }
+            generator.run();
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        if (udp) udpTags = probeUdpTags();
+        if (keys.isEmpty()) {
+            keys = discoverKeys();
+            if (keys.isEmpty()) throw new IOException("No keys found, use -keys");
+        }
+        if (zipf) zipfCdf = zipfCdf(keys.size(), zipfExponent);
+        System.out.println("Target " + address + ":" + port + " over " + (udp ? "UDP" : "TCP")
+                + ", " + concurrency + " workers, " + keys.size() + " keys (" + (zipf ? "zipf " + zipfExponent : "uniform")
+                + "), SET ratio " + setRatio + (udp ? (udpTags ? ", tagged datagrams" : ", untagged datagrams") : ""));
+
+        List<String> rows = new ArrayList<>();
+        for (long rate : rates) {
+            if (warmupMillis > 0) runPhase(rate, warmupMillis, null);
+            Result result = runPhase(rate, durationMillis, new LatencyHistogram());
+            String row = result.row(rate);
+            System.out.println(row);
+            System.out.println("  latency " + result.latency.summary());
+            rows.add(row);
+        }
+        if (rates.length > 1) {
+            System.out.println();
+            System.out.println(Result.HEADER);
+            for (String row : rows) System.out.println(row);
+        }
+    }
+
+    // ---------------------------------------------------
+    // Ölçüm
+    // ---------------------------------------------------
+    static class Result {
+        static final String HEADER = String.format(Locale.ROOT, "%10s %10s %10s %8s %8s %8s %10s %10s %10s",
+                "target/s", "done/s", "requests", "NA", "timeouts", "errors", "p50 us", "p99 us", "max us");
+        final LatencyHistogram latency;
+        final AtomicLong notAvailable = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        long elapsedNanos;
+
+        Result(LatencyHistogram latency) {
+            this.latency = latency;
+        }
+
+        String row(long rate) {
+            // Timeout'lar gecikmeye katılır ama tamamlanmış istek sayılmaz
+            long requests = latency.count() - timeouts.get();
+            double done = requests * 1e9 / Math.max(1, elapsedNanos);
+            return String.format(Locale.ROOT, "%10s %10.0f %10d %8d %8d %8d %10.1f %10.1f %10.1f",
+                    rate == 0 ? "closed" : String.valueOf(rate), done, requests, notAvailable.get(), timeouts.get(), errors.get(),
+                    latency.percentile(0.50) / 1e3, latency.percentile(0.99) / 1e3, latency.max() / 1e3);
+        }
+    }
+
+    // histogram null ise warmup: sonuçlar atılır
+    private Result runPhase(long rate, long millis, LatencyHistogram histogram) throws InterruptedException {
+        Result result = new Result(histogram != null ? histogram : new LatencyHistogram());
+        long start = System.nanoTime() + 10000000L;
+        long end = start + millis * 1000000L;
+        // Open-loop'ta worker k; k, k+c, k+2c... numaralı planlanmış istekleri gönderir
+        double intervalNanos = rate > 0 ? 1e9 / rate : 0;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < concurrency; w++) {
+            final int worker = w;
+            Thread thread = new Thread(() -> {
+                try (Channel channel = udp ? new UdpChannel() : new TcpChannel()) {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (long n = worker; ; n += concurrency) {
+                        long intended;
+                        if (rate > 0) {
+                            intended = start + (long) (n * intervalNanos);
+                            if (intended >= end) break;
+                            sleepUntil(intended);
+                        } else {
+                            intended = System.nanoTime();
+                            if (intended >= end) break;
+                        }
+                        String reply;
+                        try {
+                            reply = channel.request(nextCommand(random));
+                        } catch (SocketTimeoutException e) {
+                            // Cevapsız istek de ölçüme girer, en az timeout kadar sürmüş sayılır;
+                            // atılsaydı yük altında p99 olduğundan iyi görünürdü
+                            result.timeouts.incrementAndGet();
+                            result.latency.record(Math.max(System.nanoTime() - intended, timeoutMillis * 1000000L));
+                            continue;
+                        }
+                        long finished = System.nanoTime();
+                        if (reply == null) {
+                            result.errors.incrementAndGet();
+                            continue;
+                        }
+                        if (reply.equals("NA")) result.notAvailable.incrementAndGet();
+                        result.latency.record(finished - intended);
+                    }
+                } catch (IOException e) {
+                    result.errors.incrementAndGet();
+                }
+            }, "load-" + w);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        // Takvimin gerisinde kalan istekler süre dolduktan sonra biter; throughput son cevaba göre
+        result.elapsedNanos = Math.max(1, System.nanoTime() - start);
+        return result;
+    }
+
+    private static void sleepUntil(long deadline) throws IOException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 200000) {
+                try {
+                    Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    private String nextCommand(ThreadLocalRandom random) {
+        String key = keys.get(zipfCdf != null ? zipfIndex(random.nextDouble()) : random.nextInt(keys.size()));
+        if (random.nextDouble() < setRatio) {
+            return "SET " + key + " " + random.nextInt(1000);
+        }
+        return "GET VALUE " + key;
+    }
+
+    // ---------------------------------------------------
+    // Key dağılımı
+    // ---------------------------------------------------
+    static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) cdf[i] /= sum;
+        return cdf;
+    }
+
+    private int zipfIndex(double u) {
+        int index = Arrays.binarySearch(zipfCdf, u);
+        return Math.min(zipfCdf.length - 1, index >= 0 ? index : -index - 1);
+    }
+
+    // Proxy'ler UDP'de "@<id> <komut>" etiketini cevaba ekler; düz server'lar NA der
+    private boolean probeUdpTags() throws IOException {
+        try (UdpChannel channel = new UdpChannel(false)) {
+            String reply = channel.request("@0 GET NAMES");
+            return reply != null && reply.startsWith("@0 ");
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    private List<String> discoverKeys() throws IOException {
+        try (Channel channel = udp ? new UdpChannel() : new TcpChannel()) {
+            String reply = channel.request("GET NAMES");
+            List<String> found = new ArrayList<>();
+            if (reply == null || !reply.startsWith("OK")) return found;
+            String[] parts = reply.split("\\s+");
+            int count = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            for (int i = 0; i < count && i + 2 < parts.length; i++) found.add(parts[i + 2]);
+            return found;
+        }
+    }
+
+    // ---------------------------------------------------
+    // Bağlantılar
+    // ---------------------------------------------------
+    interface Channel extends Closeable {
+        // Bağlantı hatasında null; cevap timeoutMillis içinde gelmezse SocketTimeoutException
+        String request(String command) throws SocketTimeoutException;
+    }
+
+    // Kalıcı TCP bağlantısı; karşı taraf kapatırsa bir sonraki istekte yeniden bağlanır
+    class TcpChannel implements Channel {
+        private Socket socket;
+        private PrintWriter out;
+        private BufferedReader in;
+
+        public String request(String command) throws SocketTimeoutException {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    if (socket == null) connect();
+                    out.print(command + "\n");
+                    out.flush();
+                    String reply = in.readLine();
+                    if (reply != null) return reply;
+                } catch (SocketTimeoutException e) {
+                    close();
+                    throw e;
+                } catch (IOException e) {
+                    // bağlantı kopmuş, bir kez yeniden dene
+                }
+                close();
+            }
+            return null;
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(address, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), false);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        }
+
+        public void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                socket = null;
+            }
+        }
+    }
+
+    /**
+     * Worker başına bir UDP soketi. Hedef etiketleri geri yolluyorsa her istek "@<id>" ile gider
+     * ve yalnızca aynı id'li cevap kabul edilir; timeout'tan sonra gelen eski cevaplar atılır.
+     * Etiketsiz hedefte timeout'tan sonra soket yenilenir: geç gelen cevap eski porta düşer ve
+     * bir sonraki isteğin cevabı sanılmaz.
+     */
+    class UdpChannel implements Channel {
+        private DatagramSocket socket;
+        private final InetSocketAddress target = new InetSocketAddress(address, port);
+        private final byte[] buffer = new byte[65535];
+        private final boolean tagged;
+        private long nextId;
+
+        UdpChannel() throws IOException {
+            this(udpTags);
+        }
+
+        UdpChannel(boolean tagged) throws IOException {
+            this.tagged = tagged;
+            open();
+        }
+
+        private void open() throws IOException {
+            socket = new DatagramSocket();
+            socket.setSoTimeout(timeoutMillis);
+        }
+
+        public String request(String command) throws SocketTimeoutException {
+            boolean shortened = false;
+            try {
+                String tag = tagged ? "@" + (++nextId) : null;
+                // UDPServer komutu satır sonuna kadar okur; proxy de aynı biçimi kabul eder
+                byte[] data = ((tag != null ? tag + " " + command : command) + "\n").getBytes("UTF-8");
+                socket.send(new DatagramPacket(data, data.length, target));
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                while (true) {
+                    DatagramPacket reply = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(reply);
+                    String text = new String(reply.getData(), 0, reply.getLength(), "UTF-8").trim();
+                    if (tag == null) return text;
+                    if (text.startsWith(tag + " ")) return text.substring(tag.length() + 1);
+                    // Önceki, zaman aşımına uğramış bir isteğin cevabı
+                    int remaining = (int) (deadline - System.currentTimeMillis());
+                    if (remaining <= 0) throw new SocketTimeoutException("Receive timed out");
+                    socket.setSoTimeout(remaining);
+                    shortened = true;
+                }
+            } catch (SocketTimeoutException e) {
+                if (!tagged) reopen();
+                throw e;
+            } catch (IOException e) {
+                return null;
+            } finally {
+                if (shortened) resetTimeout();
+            }
+        }
+
+        private void reopen() {
+            socket.close();
+            try {
+                open();
+            } catch (IOException ignored) {
+                // Bir sonraki istek kapalı sokette hata alır ve error sayılır
+            }
+        }
+
+        private void resetTimeout() {
+            try {
+                socket.setSoTimeout(timeoutMillis);
+            } catch (IOException ignored) {
+            }
+        }
+
+        public void close() {
+            socket.close();
+        }
+    }
+}
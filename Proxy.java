@@ -2,6 +2,12 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.BooleanSupplier;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
 import java.nio.charset.StandardCharsets;
 //=====================================================================================================
 public class Proxy {
@@ -10,507 +16,4132 @@ public class Proxy {
     private List<ServerInfo> servers = new ArrayList<>();
     // Her key için hangi node'a gideceğimizi tutuyoruz
     private Map<String, ServerInfo> keyToServer = new ConcurrentHashMap<>();
+    // Key'i bildiren bütün node'lar ve o node üzerinden key'e kaç hop olduğu
+    // (keyToServer'daki birincil route dahil); hedge ve failover için alternatifler
+    private Map<String, Map<ServerInfo, Integer>> keyRoutes = new ConcurrentHashMap<>();
     // Tüm bilinen key isimleri
     private Set<String> allKeys = ConcurrentHashMap.newKeySet();
+    // İsteklerden okunan key'lerin kanonik String'leri (discovery doldurur)
+    private final KeyPool keyNames = new KeyPool(1 << 22);
     // PROXYNAMES "session"larını takip ederek cycle'ları engelliyoruz
     private Set<String> processedSessions = ConcurrentHashMap.newKeySet();
 
     private volatile boolean running = true;
+
+    // İstemci TCP bağlantısı bu kadar süre boşta kalırsa kapatılır
+    long clientIdleMillis = 30000;
+
+    // Upstream TCP bağlantı havuzu ayarları
+    int poolSize = 8;
+    long poolIdleMillis = 15000;
+    // Havuz temizliği gibi arka plan işleri için
+    private ScheduledExecutorService scheduler;
+    // Upstream UDP istekleri için paylaşılan kanal
+    private UdpMultiplexer udpUpstream;
+
+    // Devre kesici ve arka plan health check ayarları
+    int breakerFailures = 3;
+    long breakerOpenMillis = 5000;
+    long healthIntervalMillis = 2000;
+
+    // -nio: thread-per-connection yerine tek Selector + sabit boyutlu worker havuzu
+    boolean nioMode = false;
+    // İstemci işlerini çalıştıran thread sayısı (0: moda göre, bkz. handlerLimit()) ve önlerindeki kuyruk
+    int workerThreads = 0;
+    int workerQueueSize = 10000;
+    // Kuyruk dolunca ne yapılacağı ve kuyrukta en fazla ne kadar beklenebileceği (0: sınırsız)
+    Admission.Policy overloadPolicy = Admission.Policy.BUSY;
+    long queueTimeoutMillis = 2000;
+    private Admission admission;
+    // Blocking modda TCP bağlantı thread'leri worker havuzunun dışında, yalnızca okur/yazar. Her biri
+    // (platform thread'lerde) bir OS thread'i olduğu için sayıları ayrıca sınırlı (0: bkz. connectionLimit())
+    int maxConnections = 0;
+    private static final int DEFAULT_MAX_CONNECTIONS = 1024;
+    private Semaphore connectionSlots;
+    private ThreadFactory handlerThreads;
+
+    // -threads virtual: istemci handler'ları (ve onların içindeki upstream çağrıları) virtual thread'lerde
+    boolean virtualThreads = false;
+    // Discovery fan-out gibi paralel upstream çağrıları için
+    private ExecutorService upstreamCalls;
+    private static final int MIN_UPSTREAM_THREADS = 64;
+
+    // Paralel discovery'nin toplam süre sınırı; geç kalan node'ların cevabı beklenmez
+    long discoveryTimeoutMillis = 5000;
+    // Upstream connect / read timeout'u: ölçüm yokken başlangıç değeri, sonra node'un
+    // RTT tahmininden türetilir ve [timeoutFloorMillis, timeoutCeilingMillis] aralığında tutulur
+    private static final int UPSTREAM_TIMEOUT_MILLIS = 2000;
+    // IPv4 UDP'de tek datagram'ın taşıyabileceği en fazla veri
+    static final int MAX_DATAGRAM = 65507;
+    long timeoutFloorMillis = 50;
+    long timeoutCeilingMillis = 5000;
+    // GET NAMES cevabı ve routing tablosu bu süre boyunca yeniden taranmadan kullanılır
+    long routeTtlMillis = 10000;
+    private volatile String cachedNames;
+    private volatile long routesRefreshedAt;
+    private volatile boolean routesStale = true;
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+    private static final long MIN_REFRESH_INTERVAL_MILLIS = 1000;
+    // Aynı anda gelen taramalar tek bir discovery'yi bekler (single-flight)
+    private final AtomicReference<CompletableFuture<String>> inflightRefresh = new AtomicReference<>();
+
+    // Bulunamayan key'ler için negatif cache ayarları
+    int negativeCacheSize = 10000;
+    long negativeTtlMillis = 5000;
+    private NegativeCache missingKeys = new NegativeCache(10000, 5000);
+    // -shard: yeni key'i kabul etmediği görülen node'lar (her biri için bir kez log)
+    private final Set<ServerInfo> rejectingCreate = ConcurrentHashMap.newKeySet();
+
+    // GET VALUE read cache'i (-cache 0 ise kapalı)
+    int valueCacheSize = 0;
+    long valueTtlMillis = 1000;
+    Map<String, Long> keyTtls = new HashMap<>();
+    private ValueCache values = new ValueCache(0, 0, Collections.<String, Long>emptyMap());
+    // Alt proxy'ye bırakılan süreden, cevabın bize dönmesi için ayrılan pay
+    private static final long DISCOVERY_HOP_MARGIN_MILLIS = 250;
+
+    // -hedge: birincil route p95 süresinde cevap vermezse GET VALUE alternatif route'a da gönderilir
+    boolean hedging = false;
+    // p95 bu kadar ölçümden azına dayanıyorsa hedge yapılmaz
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    // -shard: key'lerin sahibi discovery'den değil, -server listesinden kurulan consistent-hash ring'den
+    boolean sharding = false;
+    int virtualNodes = 160;
+    private HashRing ring;
+    // -replicas: key ring'de ardışık bu kadar node'da tutulur. SET writeQuorum onay bekler (0: çoğunluk),
+    // GET VALUE readQuorum cevap bekler (1: replikalar arasında sırayla tek okuma)
+    int replicas = 1;
+    int writeQuorum = 0;
+    int readQuorum = 1;
+    private final AtomicInteger replicaRound = new AtomicInteger();
+    // Key hash'ine göre şeritlenmiş SET sayaçları: okumadan beri key'e SET geçtiyse read repair yazmaz
+    private final AtomicLongArray writeStamps = new AtomicLongArray(256);
+    private final AtomicLong readRepairs = new AtomicLong();
+    private final AtomicLong hintsReplayed = new AtomicLong();
+    private static final int MAX_HINTS_PER_NODE = 100000;
+
+    // -coalesce: aynı key'e bu süre içinde gelen SET'ler tek upstream yazımı olur (0: kapalı).
+    // -ackmode immediate: SET birleştirilince hemen OK; flushed: birleştiği yazımın cevabı beklenir
+    long coalesceMillis = 0;
+    boolean immediateAck = false;
+    private WriteCoalescer coalescer;
+
+    // Komut / upstream / discovery metrikleri; -metricsport verilirse Prometheus formatında da sunulur
+    private final Metrics metrics = new Metrics();
+    int metricsPort = 0;
 //=====================================================================================================
     static class ServerInfo {
         String address;
         int port;
-        boolean isTCP;
-        boolean isProxy;
+        volatile boolean isTCP;
+        volatile boolean isProxy;
+        // UDP'de "@<id>" etiketini cevapta geri yolluyor (proxy'ler ve bu repodaki server'lar); bkz. tryUDP
+        volatile boolean echoesTags;
         Set<String> keys = ConcurrentHashMap.newKeySet();
+        ConnectionPool pool = new ConnectionPool(8, 15000);
+        final RttEstimator rtt = new RttEstimator();
+        // Başarılı her isteğin (fallback dahil) uçtan uca süresi
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong fallbacks = new AtomicLong();
+        // -replicas: bu node'a ulaşamayan SET'lerin son değerleri; node tekrar cevap verince gönderilir
+        final Map<String, Integer> hints = new ConcurrentHashMap<>();
+        CircuitBreaker breaker = new CircuitBreaker(this, 3, 5000);
+        private volatile InetSocketAddress socketAddress;
 
         ServerInfo(String address, int port) {
             this.address = address;
             this.port = port;
         }
 
+        InetSocketAddress socketAddress() throws UnknownHostException {
+            InetSocketAddress resolved = socketAddress;
+            if (resolved == null) {
+                resolved = new InetSocketAddress(InetAddress.getByName(address), port);
+                socketAddress = resolved;
+            }
+            return resolved;
+        }
+
         @Override
         public String toString() {
             return address + ":" + port + (isTCP ? "(TCP)" : "(UDP)") + (isProxy ? "[proxy]" : "[server]");
         }
     }
 //=====================================================================================================
-    public static void main(String[] args) {
-        int port = 0;
-        List<ServerInfo> servers = new ArrayList<>();
-        try {
-            for (int i = 0; i < args.length;) {
-                switch (args[i]) {
-                    case "-port":
-                        port = Integer.parseInt(args[i + 1]);
-                        i += 2;
-                        break;
-                    case "-server":
-                        String address = args[i + 1];
-                        int serverPort = Integer.parseInt(args[i + 2]);
-                        servers.add(new ServerInfo(address, serverPort));
-                        i += 3;
-                        break;
-                    default:
-                        System.err.println("Unknown parameter: " + args[i]);
-                        System.exit(1);
-                }
+    /**
+     * Node başına devre kesici. Üst üste failureThreshold hata → OPEN: istekler node'a hiç
+     * gönderilmeden hemen başarısız olur. openMillis sonra HALF_OPEN: tek bir deneme isteğine
+     * izin verilir, başarılıysa CLOSED, değilse yeniden OPEN. Health checker da başarılı bir
+     * probe ile devreyi kapatabilir.
+     */
+    static class CircuitBreaker {
+        enum State { CLOSED, OPEN, HALF_OPEN }
+
+        private final ServerInfo server;
+        private final int failureThreshold;
+        private final long openMillis;
+        private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long openedAt;
+        final AtomicLong trips = new AtomicLong();
+
+        CircuitBreaker(ServerInfo server, int failureThreshold, long openMillis) {
+            this.server = server;
+            this.failureThreshold = failureThreshold;
+            this.openMillis = openMillis;
+        }
+
+        State state() {
+            return state.get();
+        }
+
+        boolean isOpen() {
+            return state.get() == State.OPEN && System.currentTimeMillis() - openedAt < openMillis;
+        }
+
+        // İstek gönderilebilir mi? OPEN süresi dolduysa bu çağrı deneme isteği olarak HALF_OPEN'a geçer
+        boolean allowRequest() {
+            State current = state.get();
+            if (current == State.CLOSED) return true;
+            if (current == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+                return transition(State.OPEN, State.HALF_OPEN);
             }
-            if (port == 0 || servers.isEmpty()) {
-                System.err.println("Incorrect execution syntax");
-                System.exit(1);
+            return false;
+        }
+
+        void onSuccess() {
+            consecutiveFailures.set(0);
+            State current = state.get();
+            if (current != State.CLOSED) transition(current, State.CLOSED);
+        }
+
+        void onFailure() {
+            State current = state.get();
+            if (current == State.HALF_OPEN) {
+                open(State.HALF_OPEN);
+            } else if (current == State.CLOSED && consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                open(State.CLOSED);
             }
-            Proxy proxy = new Proxy(port, servers);
-            proxy.start();
         }
-        catch (Exception e){System.err.println("Error: " + e.getMessage());System.exit(1);}
+
+        private void open(State from) {
+            openedAt = System.currentTimeMillis();
+            if (transition(from, State.OPEN)) trips.incrementAndGet();
+        }
+
+        private boolean transition(State from, State to) {
+            if (!state.compareAndSet(from, to)) return false;
+            if (to == State.OPEN) openedAt = System.currentTimeMillis();
+            Log.warn("Circuit for {}: {} -> {}", server.address + ":" + server.port, from, to);
+            return true;
+        }
     }
 //=====================================================================================================
-    public Proxy(int port, List<ServerInfo> servers) {
-        this.port = port;
-        this.servers = servers;
-    }
-    public void start() {
-        // 1) Hangi node TCP / UDP, önce onu bul
-        discoverServers();
+    /**
+     * Jacobson/Karels tarzı round-trip süresi tahmini (TCP'nin RTO hesabı gibi):
+     * srtt ve rttvar'ın EWMA'sı, timeout = srtt + 4 * rttvar.
+     */
+    static class RttEstimator {
+        private static final int MAX_BACKOFF_SHIFT = 4;
+        private static final int WINDOW_SIZE = 128;
+        private final ReentrantLock lock = new ReentrantLock();
+        private double srtt = -1;
+        private double rttvar;
+        // Timeout oldukça süre ikiye katlanır (TCP'deki gibi), ilk başarılı ölçümde sıfırlanır
+        private int backoffShift;
+        // Percentile hesabı için son WINDOW_SIZE ölçüm (halka)
+        private final double[] window = new double[WINDOW_SIZE];
+        private int windowCount;
+        private int windowNext;
 
-        // 2) Listener'ları aç
-        Thread tcpThread = new Thread(this::startTCPListener);
-        Thread udpThread = new Thread(this::startUDPListener);
+        void sample(double millis) {
+            lock.lock();
+            try {
+                if (srtt < 0) {
+                    srtt = millis;
+                    rttvar = millis / 2;
+                } else {
+                    rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - millis);
+                    srtt = 0.875 * srtt + 0.125 * millis;
+                }
+                backoffShift = 0;
+                window[windowNext] = millis;
+                windowNext = (windowNext + 1) % WINDOW_SIZE;
+                if (windowCount < WINDOW_SIZE) windowCount++;
+            } finally {
+                lock.unlock();
+            }
+        }
 
-        tcpThread.start();
-        udpThread.start();
+        void backoff() {
+            lock.lock();
+            try {
+                if (backoffShift < MAX_BACKOFF_SHIFT) backoffShift++;
+            } finally {
+                lock.unlock();
+            }
+        }
 
-        try {
-            tcpThread.join();
-            udpThread.join();
-        } catch (InterruptedException e) {
-            System.err.println("Interrupted: " + e.getMessage());
+        // Henüz ölçüm yoksa initial esas alınır; sonuç [floor, ceiling] aralığına sıkıştırılır
+        long timeout(long initial, long floor, long ceiling) {
+            lock.lock();
+            try {
+                double rto = (srtt < 0 ? initial : srtt + Math.max(1, 4 * rttvar)) * (1 << backoffShift);
+                return Math.max(floor, Math.min(ceiling, (long) Math.ceil(rto)));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Son ölçümlerin q'ncü percentile'ı; minSamples'tan az ölçüm varsa -1
+        double percentile(double q, int minSamples) {
+            double[] sorted;
+            lock.lock();
+            try {
+                if (windowCount < minSamples || windowCount == 0) return -1;
+                sorted = Arrays.copyOf(window, windowCount);
+            } finally {
+                lock.unlock();
+            }
+            Arrays.sort(sorted);
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(q * sorted.length) - 1)];
+        }
+
+        // Ölçüm yoksa -1
+        double smoothed() {
+            lock.lock();
+            try {
+                return srtt;
+            } finally {
+                lock.unlock();
+            }
         }
     }
-    // ---------------------------------------------------
-    // DISCOVERY KISMI
-    // ---------------------------------------------------
-    private void discoverServers() {
-        for (ServerInfo server : servers) {
-            // Önce TCP dene
-            boolean isTCP = tryTCP(server);
-            if (isTCP) {
-                server.isTCP = true;
-                System.out.println("Server " + server + " is TCP");
-            } else {
-                // Olmazsa UDP
-                server.isTCP = false;
-                if (tryUDP(server)) {
-                    System.out.println("Server " + server + " is UDP");
-                } else {
-                    System.err.println("Could not connect to " + server.address + ":" + server.port);
+//=====================================================================================================
+    /**
+     * Proxy'nin tüm upstream UDP istekleri için tek, uzun ömürlü DatagramChannel.
+     * Proxy'lere ve etiketi geri yollayan server'lara giden istekler "@<id> <komut>" şeklinde
+     * etiketlenir ve cevap aynı etiketle gelir. Etiket bilmeyen yabancı server'lara her istek kendi
+     * geçici socket'inden gider (bkz. requestUntagged).
+     * Cevap gelmezse RTO'ya göre aynı istek tekrar gönderilir.
+     */
+    static class UdpMultiplexer {
+        private static final long MIN_RTO_MILLIS = 20;
+        private static final long INITIAL_RTO_MILLIS = 500;
+
+        private final DatagramChannel channel;
+        private final AtomicLong nextId = new AtomicLong();
+        private final ConcurrentHashMap<Long, CompletableFuture<String>> tagged = new ConcurrentHashMap<>();
+
+        UdpMultiplexer() throws IOException {
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(0));
+            Thread receiver = new Thread(this::receiveLoop, "proxy-udp-upstream");
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        private void receiveLoop() {
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM);
+            while (channel.isOpen()) {
+                try {
+                    buffer.clear();
+                    SocketAddress from = channel.receive(buffer);
+                    buffer.flip();
+                    String reply = new String(buffer.array(), 0, buffer.limit(), StandardCharsets.UTF_8).trim();
+                    dispatch(from, reply);
+                } catch (IOException e) {
+                    if (channel.isOpen()) Log.warn("UDP upstream receive error: {}", e.getMessage());
+                }
+            }
+        }
+
+        // Bekleyen isteği olmayan (geç kalmış ya da yabancı) ve etiketsiz cevaplar atılır
+        private void dispatch(SocketAddress from, String reply) {
+            if (!reply.startsWith("@")) return;
+            int space = reply.indexOf(' ');
+            try {
+                long id = Long.parseLong(reply.substring(1, space < 0 ? reply.length() : space));
+                CompletableFuture<String> waiter = tagged.get(id);
+                if (waiter != null) waiter.complete(space < 0 ? "" : reply.substring(space + 1));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        /**
+         * Komutu gönderir ve cevabı timeoutMillis içinde bekler; cevap yoksa null.
+         * retransmit false ise istek tek sefer gönderilir (ör. PROXYNAMES: aynı session'ın
+         * ikinci kopyası karşı tarafta cycle sayılıp boş cevap üretir).
+         */
+        String request(ServerInfo server, String command, long timeoutMillis, boolean retransmit) throws IOException, InterruptedException {
+            InetSocketAddress target = server.socketAddress();
+            if (command.startsWith("QUIT")) {
+                send((command + "\n").getBytes(StandardCharsets.UTF_8), target);
+                return null;
+            }
+
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            if (!server.isProxy && !server.echoesTags) {
+                return requestUntagged(server, target, command, deadline, retransmit);
+            }
+            CompletableFuture<String> reply = new CompletableFuture<>();
+            long id = nextId.incrementAndGet();
+            byte[] payload = ("@" + id + " " + command + "\n").getBytes(StandardCharsets.UTF_8);
+            tagged.put(id, reply);
+
+            try {
+                long rto = retransmit ? server.rtt.timeout(INITIAL_RTO_MILLIS, MIN_RTO_MILLIS, timeoutMillis) : timeoutMillis;
+                int attempts = 0;
+                while (true) {
+                    long sentAt = System.nanoTime();
+                    send(payload, target);
+                    attempts++;
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) return null;
+                    try {
+                        String response = reply.get(Math.min(rto, remaining), TimeUnit.MILLISECONDS);
+                        // Karn: tekrar gönderilmiş isteğin süresi hangi kopyaya ait belli değil, ölçme
+                        if (attempts == 1 && isLatencySample(command)) server.rtt.sample((System.nanoTime() - sentAt) / 1e6);
+                        return response;
+                    } catch (TimeoutException e) {
+                        if (!retransmit || System.currentTimeMillis() >= deadline) {
+                            server.rtt.backoff();
+                            return null;
+                        }
+                        rto *= 2;
+                    } catch (ExecutionException e) {
+                        return null;
+                    }
+                }
+            } finally {
+                tagged.remove(id);
+            }
+        }
+
+        // DatagramChannel interrupt edilmiş thread'de I/O yaparsa kapanır (ClosedByInterruptException)
+        // ve bütün UDP upstream'ler ölür; çağıranın interrupt'ı gönderim süresince saklanır
+        private void send(byte[] payload, SocketAddress target) throws IOException {
+            boolean interrupted = Thread.interrupted();
+            try {
+                channel.send(ByteBuffer.wrap(payload), target);
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Yabancı server cevaba etiket koymaz; cevabı kaynak adresinden eşleştirmek, geç kalan ya da
+         * tekrar gönderilmiş isteğin cevabını o server'a giden sonraki isteğe verir. Bu yüzden her
+         * etiketsiz istek kendi geçici socket'inden gönderilir: o socket'e gelen her cevap bu komuta
+         * aittir (tekrar gönderilen kopyalarınki dahil), istek bitince socket kapanır ve geç kalan
+         * cevaplar hiçbir isteğe ulaşmadan düşer.
+         */
+        private String requestUntagged(ServerInfo server, InetSocketAddress target, String command, long deadline,
+                                       boolean retransmit) throws IOException {
+            byte[] payload = (command + "\n").getBytes(StandardCharsets.UTF_8);
+            byte[] buffer = new byte[MAX_DATAGRAM];
+            try (DatagramSocket socket = new DatagramSocket()) {
+                DatagramPacket request = new DatagramPacket(payload, payload.length, target);
+                DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+                long rto = retransmit ? server.rtt.timeout(INITIAL_RTO_MILLIS, MIN_RTO_MILLIS, deadline - System.currentTimeMillis())
+                        : deadline - System.currentTimeMillis();
+                int attempts = 0;
+                while (true) {
+                    long sentAt = System.nanoTime();
+                    socket.send(request);
+                    attempts++;
+                    long waitUntil = Math.min(deadline, System.currentTimeMillis() + rto);
+                    try {
+                        while (true) {
+                            long remaining = waitUntil - System.currentTimeMillis();
+                            if (remaining <= 0) throw new SocketTimeoutException();
+                            socket.setSoTimeout((int) remaining);
+                            response.setLength(buffer.length);
+                            socket.receive(response);
+                            // Ephemeral port'a başka bir yerden gelen datagram
+                            if (target.equals(response.getSocketAddress())) break;
+                        }
+                        if (attempts == 1 && isLatencySample(command)) server.rtt.sample((System.nanoTime() - sentAt) / 1e6);
+                        return new String(buffer, 0, response.getLength(), StandardCharsets.UTF_8).trim();
+                    } catch (SocketTimeoutException e) {
+                        if (!retransmit || System.currentTimeMillis() >= deadline) {
+                            server.rtt.backoff();
+                            return null;
+                        }
+                        rto *= 2;
+                    }
                 }
             }
         }
-        // İlk routing tablosu için bir kez global discovery yap
-        String initialSession = UUID.randomUUID().toString();
-        System.out.println("Initial discovery session: " + initialSession);
-        String response = gatherKeysForSession(initialSession);
-        System.out.println("Initial keys: " + response);
     }
-    //=====================================================================================================
-    private boolean tryTCP(ServerInfo server) {
-        try {
+//=====================================================================================================
+    /**
+     * Bir upstream node'a açık tutulan tek bir TCP bağlantısı.
+     * Protokol satır bazlı olduğu için her komut tek satır yazıp tek satır okur.
+     */
+    static class UpstreamConnection {
+        final Socket socket;
+        final BufferedReader in;
+        final Writer out;
+        volatile long lastUsed;
+
+        UpstreamConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        static UpstreamConnection open(ServerInfo server, int timeoutMillis) throws IOException {
             Socket socket = new Socket();
-            socket.connect(new InetSocketAddress(server.address, server.port), 2000);
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            try {
+                socket.connect(new InetSocketAddress(server.address, server.port), timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                return new UpstreamConnection(socket);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
 
-            out.println("GET NAMES");
+        // Karşı taraf bağlantıyı kapattıysa null döner (EOF)
+        String roundTrip(String command, int timeoutMillis) throws IOException {
+            if (socket.getSoTimeout() != timeoutMillis) {
+                socket.setSoTimeout(timeoutMillis);
+            }
+            out.write(command);
+            out.write('\n');
+            out.flush();
             String response = in.readLine();
+            lastUsed = System.currentTimeMillis();
+            return response;
+        }
 
-            in.close();
-            out.close();
-            socket.close();
+        // Komutların hepsini tek flush ile yazar; cevaplardan biri eksikse null
+        List<String> pipeline(List<String> commands, int timeoutMillis) throws IOException {
+            if (socket.getSoTimeout() != timeoutMillis) {
+                socket.setSoTimeout(timeoutMillis);
+            }
+            for (String command : commands) {
+                out.write(command);
+                out.write('\n');
+            }
+            out.flush();
+            List<String> responses = new ArrayList<>(commands.size());
+            for (int i = 0; i < commands.size(); i++) {
+                String response = in.readLine();
+                if (response == null) return null;
+                responses.add(response);
+            }
+            lastUsed = System.currentTimeMillis();
+            return responses;
+        }
 
-            return response != null && response.startsWith("OK");
+        void send(String command) throws IOException {
+            out.write(command);
+            out.write('\n');
+            out.flush();
         }
-        catch (IOException e) {return false;}
-    }
-    //=====================================================================================================
-    private boolean tryUDP(ServerInfo server) {
-        try {
-            DatagramSocket socket = new DatagramSocket();
-            socket.setSoTimeout(2000);
-            String command = "GET NAMES\n";
-            byte[] buffer = command.getBytes(StandardCharsets.UTF_8);
-
-            DatagramPacket packet = new DatagramPacket(
-                    buffer,
-                    buffer.length,
-                    InetAddress.getByName(server.address),
-                    server.port
-            );
-
-            socket.send(packet);
-
-            buffer = new byte[1024];
-            packet = new DatagramPacket(buffer, buffer.length);
-            socket.receive(packet);
-            String response = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8).trim();
-            socket.close();
-            return response.startsWith("OK");
-        } catch (Exception e) {
-            return false;
+
+        // Havuzdan tekrar verilmeden önce sağlık kontrolü
+        boolean isHealthy(long now, long idleMillis) {
+            if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+                return false;
+            }
+            if (now - lastUsed > idleMillis) {
+                return false;
+            }
+            try {
+                // Beklemediğimiz bir veri varsa akış kaymış demektir, bu bağlantı kullanılamaz
+                return !in.ready();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
         }
     }
-    // ---------------------------------------------------
-    // PROXY → NODE KOMUT GÖNDERME
-    // ---------------------------------------------------
-    private String sendCommand(ServerInfo server, String command) {
-        // İlk önce belirlenen protokolü dene
-        String response = null;
-        boolean currentProtocol = server.isTCP;
-        
-        if (currentProtocol) {
-            response = sendTCPCommand(server, command);
-            // TCP başarısız olduysa, UDP'yi dene (fallback)
-            if (response == null && !command.startsWith("QUIT")) {
-                System.err.println("TCP failed for " + server + ", trying UDP fallback");
-                response = sendUDPCommand(server, command);
-                // UDP başarılı olduysa, bundan sonra bu sunucu için UDP kullan
-                if (response != null) {
-                    synchronized (server) {
-                        server.isTCP = false;
-                    }
+//=====================================================================================================
+    /**
+     * Her ServerInfo için sınırlı boyutlu keep-alive bağlantı havuzu.
+     * Boşta kalan bağlantılar LIFO sırasıyla verilir, böylece eski bağlantılar kuyruğun sonunda
+     * birikir ve idle süresi dolunca temizlenir.
+     */
+    static class ConnectionPool {
+        final int maxIdle;
+        final long idleMillis;
+        private final ConcurrentLinkedDeque<UpstreamConnection> idle = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+        private final AtomicInteger reuseFailures = new AtomicInteger();
+        // Node her komuttan sonra bağlantıyı kapatıyorsa (ör. TCPServer) havuzlamayı bırakıyoruz
+        volatile boolean keepAlive = true;
+        // En az bir kez aynı bağlantıda ikinci komutu cevapladı: pipelining için güvenli
+        volatile boolean reuseConfirmed;
+
+        ConnectionPool(int maxIdle, long idleMillis) {
+            this.maxIdle = maxIdle;
+            this.idleMillis = idleMillis;
+        }
+
+        UpstreamConnection borrow() {
+            long now = System.currentTimeMillis();
+            UpstreamConnection conn;
+            while ((conn = idle.pollFirst()) != null) {
+                idleCount.decrementAndGet();
+                if (conn.isHealthy(now, idleMillis)) {
+                    return conn;
                 }
+                conn.close();
             }
-        } else {
-            response = sendUDPCommand(server, command);
-            // UDP başarısız olduysa, TCP'yi dene (fallback)
-            if (response == null && !command.startsWith("QUIT")) {
-                System.err.println("UDP failed for " + server + ", trying TCP fallback");
-                response = sendTCPCommand(server, command);
-                // TCP başarılı olduysa, bundan sonra bu sunucu için TCP kullan
-                if (response != null) {
-                    synchronized (server) {
-                        server.isTCP = true;
-                    }
+            return null;
+        }
+
+        void release(UpstreamConnection conn) {
+            if (!keepAlive || idleCount.incrementAndGet() > maxIdle) {
+                if (keepAlive) idleCount.decrementAndGet();
+                conn.close();
+                return;
+            }
+            idle.offerFirst(conn);
+        }
+
+        void reuseSucceeded() {
+            reuseFailures.set(0);
+            reuseConfirmed = true;
+        }
+
+        // Havuzdan alınan bağlantı kopuk çıktı; üst üste olursa node keep-alive desteklemiyor
+        void reuseFailed() {
+            if (reuseFailures.incrementAndGet() >= 2 && keepAlive) {
+                keepAlive = false;
+                closeAll();
+            }
+        }
+
+        void evictIdle() {
+            long now = System.currentTimeMillis();
+            Iterator<UpstreamConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                UpstreamConnection conn = it.next();
+                if (!conn.isHealthy(now, idleMillis) && idle.removeLastOccurrence(conn)) {
+                    idleCount.decrementAndGet();
+                    conn.close();
+                }
+            }
+        }
+
+        void closeAll() {
+            UpstreamConnection conn;
+            while ((conn = idle.pollFirst()) != null) {
+                idleCount.decrementAndGet();
+                conn.close();
+            }
+        }
+
+        int idleConnections() {
+            return idleCount.get();
+        }
+    }
+//=====================================================================================================
+    /**
+     * Discovery sonrası bile bulunamayan key'ler için sınırlı, TTL'li negatif cache.
+     * Sürekli olmayan bir key'i soran istemci her seferinde tüm ağı taratmasın diye.
+     */
+    static class NegativeCache {
+        private final int maxEntries;
+        private final long ttlMillis;
+        private final ReentrantLock lock = new ReentrantLock();
+        // Ekleme sırasına göre; dolunca en eski kayıt atılır
+        private final LinkedHashMap<String, Long> expiries = new LinkedHashMap<String, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        final AtomicLong hits = new AtomicLong();
+
+        NegativeCache(int maxEntries, long ttlMillis) {
+            this.maxEntries = maxEntries;
+            this.ttlMillis = ttlMillis;
+        }
+
+        boolean contains(String key) {
+            if (ttlMillis <= 0) return false;
+            lock.lock();
+            try {
+                Long expiresAt = expiries.get(key);
+                if (expiresAt == null) return false;
+                if (expiresAt < System.currentTimeMillis()) {
+                    expiries.remove(key);
+                    return false;
                 }
+            } finally {
+                lock.unlock();
+            }
+            hits.incrementAndGet();
+            return true;
+        }
+
+        void add(String key) {
+            if (ttlMillis <= 0) return;
+            lock.lock();
+            try {
+                expiries.remove(key);
+                expiries.put(key, System.currentTimeMillis() + ttlMillis);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return expiries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+//=====================================================================================================
+    /**
+     * GET VALUE cevapları için LRU read cache. Her kaydın kendi son kullanma zamanı var,
+     * böylece key bazında farklı TTL verilebiliyor.
+     * Her key'in (stripe'ının) bir sürüm sayacı var: upstream'e gitmeden önce alınan token ile
+     * dönüşte yazılan değer, arada aynı key'e bir SET başladıysa cache'e girmez. Birbiriyle
+     * çakışan iki SET'in upstream'deki sırası bilinemediği için ikisinin değeri de cache'lenmez.
+     */
+    static class ValueCache {
+        private static class CachedValue {
+            final int value;
+            final long expiresAt;
+
+            CachedValue(int value, long expiresAt) {
+                this.value = value;
+                this.expiresAt = expiresAt;
             }
         }
+
+        private final int maxEntries;
+        private final long defaultTtlMillis;
+        private final Map<String, Long> keyTtls;
+        private final ReentrantLock lock = new ReentrantLock();
+        // accessOrder = true: en az kullanılan başta, dolunca o atılır
+        private final LinkedHashMap<String, CachedValue> entries;
+        private static final int STRIPES = 1024;
+        private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+
+        ValueCache(int maxEntries, long defaultTtlMillis, Map<String, Long> keyTtls) {
+            this.maxEntries = maxEntries;
+            this.defaultTtlMillis = defaultTtlMillis;
+            this.keyTtls = keyTtls;
+            this.entries = new LinkedHashMap<String, CachedValue>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+                    return size() > ValueCache.this.maxEntries;
+                }
+            };
+        }
+
+        boolean isEnabled() {
+            return maxEntries > 0;
+        }
+
+        // Cache'te yoksa ya da süresi dolduysa null
+        Integer get(String key) {
+            lock.lock();
+            try {
+                CachedValue entry = entries.get(key);
+                if (entry != null && entry.expiresAt >= System.currentTimeMillis()) {
+                    hits.incrementAndGet();
+                    return entry.value;
+                }
+                if (entry != null) entries.remove(key);
+            } finally {
+                lock.unlock();
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+
+        private static int stripe(String key) {
+            int h = key.hashCode();
+            return (h ^ (h >>> 16)) & (STRIPES - 1);
+        }
+
+        // GET upstream'e gitmeden önce alınır, fill() ile birlikte kullanılır
+        long fillToken(String key) {
+            return versions.get(stripe(key));
+        }
+
+        // Upstream'den okunan değeri yazar; arada key'e bir SET başladıysa yazmaz
+        void fill(String key, int value, long token) {
+            lock.lock();
+            try {
+                if (versions.get(stripe(key)) == token) {
+                    store(key, value);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // SET upstream'e gitmeden önce: eski değeri siler, put() için token döner
+        long invalidate(String key) {
+            lock.lock();
+            try {
+                entries.remove(key);
+                return versions.incrementAndGet(stripe(key));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Yazımı onaylanan SET'in değeri; yalnızca arada başka SET başlamadıysa (compare-and-set).
+        // Başladıysa hangisinin upstream'de kazandığı bilinmez: key boş bırakılır ve sürüm artar,
+        // böylece çakışan SET de kendi değerini yazamaz.
+        void put(String key, int value, long token) {
+            lock.lock();
+            try {
+                int i = stripe(key);
+                if (versions.get(i) == token) {
+                    store(key, value);
+                } else {
+                    entries.remove(key);
+                    versions.incrementAndGet(i);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void store(String key, int value) {
+            long ttl = keyTtls.getOrDefault(key, defaultTtlMillis);
+            if (ttl <= 0) return;
+            entries.put(key, new CachedValue(value, System.currentTimeMillis() + ttl));
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+//=====================================================================================================
+    /**
+     * Seviyeli, asenkron log. Çağıran thread mesajı biçimlendirmez: şablon ve argümanlar
+     * kilitsiz, sınırlı bir halka tampona (Vyukov MPMC kuyruğu) konur; arka plandaki tek yazıcı
+     * thread "{}" yerlerini doldurup stdout'a (ERROR/WARN → stderr) toplu halde yazar. Seviye
+     * kapalıysa çağrı hemen döner, string birleştirme yapılmaz. Tampon doluysa mesaj düşürülür
+     * ve düşen mesaj sayısı daha sonra raporlanır; istek yolu hiçbir zaman I/O beklemez.
+     */
+    static final class Log {
+        enum Level { ERROR, WARN, INFO, DEBUG }
+
+        private static final class Event {
+            final Level level;
+            final String format;
+            final Object a, b, c;
+            final int argCount;
+
+            Event(Level level, String format, int argCount, Object a, Object b, Object c) {
+                this.level = level;
+                this.format = format;
+                this.argCount = argCount;
+                this.a = a;
+                this.b = b;
+                this.c = c;
+            }
+        }
+
+        private static final int CAPACITY = 1 << 14;
+        private static final int MASK = CAPACITY - 1;
+        private static final Event[] events = new Event[CAPACITY];
+        // Slot i'nin sırası: == pos ise yazılabilir, == pos + 1 ise okunabilir
+        private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+        private static final AtomicLong tail = new AtomicLong();
+        private static long head;
+        private static final AtomicLong dropped = new AtomicLong();
+        // Yazıcı thread ile kapanıştaki son boşaltma aynı anda okumasın
+        private static final ReentrantLock drainLock = new ReentrantLock();
+        // Boşta yazıcı park eder; mesaj koyan thread writerParked görürse onu uyandırır
+        private static volatile Thread writer;
+        private static volatile boolean writerParked;
+        private static final PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        private static final PrintStream err = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), 1 << 16), false);
+
+        static volatile Level level = Level.INFO;
+
+        static {
+            for (int i = 0; i < CAPACITY; i++) sequences.set(i, i);
+            writer = new Thread(Log::writeLoop, "proxy-log");
+            writer.setDaemon(true);
+            writer.start();
+            // System.exit (QUIT) öncesi kuyrukta kalanları yaz
+            Runtime.getRuntime().addShutdownHook(new Thread(Log::drain));
+        }
+
+        static boolean isEnabled(Level l) {
+            return l.ordinal() <= level.ordinal();
+        }
+
+        static boolean debugEnabled() {
+            return level == Level.DEBUG;
+        }
+
+        static void error(String format) { log(Level.ERROR, format, 0, null, null, null); }
+        static void error(String format, Object a) { log(Level.ERROR, format, 1, a, null, null); }
+        static void error(String format, Object a, Object b) { log(Level.ERROR, format, 2, a, b, null); }
+        static void warn(String format) { log(Level.WARN, format, 0, null, null, null); }
+        static void warn(String format, Object a) { log(Level.WARN, format, 1, a, null, null); }
+        static void warn(String format, Object a, Object b) { log(Level.WARN, format, 2, a, b, null); }
+        static void warn(String format, Object a, Object b, Object c) { log(Level.WARN, format, 3, a, b, c); }
+        static void info(String format) { log(Level.INFO, format, 0, null, null, null); }
+        static void info(String format, Object a) { log(Level.INFO, format, 1, a, null, null); }
+        static void info(String format, Object a, Object b) { log(Level.INFO, format, 2, a, b, null); }
+        static void info(String format, Object a, Object b, Object c) { log(Level.INFO, format, 3, a, b, c); }
+        static void debug(String format, Object a) { log(Level.DEBUG, format, 1, a, null, null); }
+        static void debug(String format, Object a, Object b) { log(Level.DEBUG, format, 2, a, b, null); }
+        static void debug(String format, Object a, Object b, Object c) { log(Level.DEBUG, format, 3, a, b, c); }
+
+        private static void log(Level l, String format, int argCount, Object a, Object b, Object c) {
+            if (l.ordinal() > level.ordinal()) return;
+            Event event = new Event(l, format, argCount, a, b, c);
+            while (true) {
+                long pos = tail.get();
+                int index = (int) (pos & MASK);
+                long diff = sequences.get(index) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        events[index] = event;
+                        sequences.set(index, pos + 1);
+                        if (writerParked) LockSupport.unpark(writer);
+                        return;
+                    }
+                } else if (diff < 0) {
+                    // Tampon dolu: isteği bekletmek yerine mesajı düşür
+                    dropped.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        private static void writeLoop() {
+            while (true) {
+                if (drain()) continue;
+                // Önce park edeceğini duyur, sonra kuyruğa tekrar bak: arada konan mesajın
+                // sahibi ya writerParked'ı görüp uyandırır ya da mesaj bu kontrolde görülür
+                writerParked = true;
+                if (!hasPending()) LockSupport.park();
+                writerParked = false;
+            }
+        }
+
+        private static boolean hasPending() {
+            drainLock.lock();
+            try {
+                return sequences.get((int) (head & MASK)) == head + 1 || dropped.get() > 0;
+            } finally {
+                drainLock.unlock();
+            }
+        }
+
+        // Kuyruktaki her şeyi yazar; en az bir mesaj yazıldıysa true
+        private static boolean drain() {
+            drainLock.lock();
+            try {
+                boolean wrote = false;
+                while (true) {
+                    int index = (int) (head & MASK);
+                    if (sequences.get(index) != head + 1) break;
+                    Event event = events[index];
+                    events[index] = null;
+                    sequences.set(index, head + CAPACITY);
+                    head++;
+                    write(event);
+                    wrote = true;
+                }
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    err.println(lost + " log message(s) dropped, log buffer full");
+                    wrote = true;
+                }
+                if (wrote) {
+                    out.flush();
+                    err.flush();
+                }
+                return wrote;
+            } finally {
+                drainLock.unlock();
+            }
+        }
+
+        private static void write(Event event) {
+            StringBuilder sb = new StringBuilder(event.format.length() + 32);
+            Object[] args = {event.a, event.b, event.c};
+            int used = 0;
+            int from = 0;
+            int at;
+            while (used < event.argCount && (at = event.format.indexOf("{}", from)) >= 0) {
+                sb.append(event.format, from, at).append(args[used++]);
+                from = at + 2;
+            }
+            sb.append(event.format, from, event.format.length());
+            PrintStream target = event.level.ordinal() <= Level.WARN.ordinal() ? err : out;
+            target.println(sb);
+            // Şablonda yeri olmayan son argüman Throwable ise stack trace'i de yaz
+            if (used < event.argCount && args[event.argCount - 1] instanceof Throwable) {
+                ((Throwable) args[event.argCount - 1]).printStackTrace(target);
+            }
+        }
+    }
+//=====================================================================================================
+    /**
+     * Alınan byte'ları String'e çevirmeden CharSequence olarak gösteren görünüm (byte → Latin-1
+     * karakter). Komut kelimeleri ve boşluklar ASCII olduğundan tokenizer doğrudan bunun üzerinde
+     * çalışır; yalnızca toString / subSequence().toString() UTF-8 çözümler.
+     */
+    static final class ByteSequence implements CharSequence {
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+
+        ByteSequence(byte[] data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (data[offset + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new ByteSequence(data, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(data, offset, length, StandardCharsets.UTF_8);
+        }
+    }
+//=====================================================================================================
+    /**
+     * Discovery'de görülen key isimlerinin tek (kanonik) String örnekleri. İstekten okunan key
+     * karakter aralığı olarak aranır: havuzda varsa aynı String döner ve yeni String oluşmaz,
+     * routing / cache map'leri de hash'i önceden hesaplanmış örnekle çalışır. Okuma kilitsizdir
+     * (yalnızca ekleme yapılan açık adresli tablo); ekleme ve büyütme kilit altında yapılır.
+     */
+    static final class KeyPool {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int maxKeys;
+        private volatile String[] table = new String[1024];
+        private int size;
+
+        KeyPool(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+
+        // Havuzdaki eşdeğer key; yoksa yeni String (havuza eklenmez)
+        String lookup(CharSequence s, int from, int to) {
+            String key = find(table, s, from, to, hash(s, from, to));
+            return key != null ? key : s.subSequence(from, to).toString();
+        }
+
+        // Havuzdaki eşdeğer key; yoksa yeni String oluşturup havuza ekler
+        String add(CharSequence s, int from, int to) {
+            int hash = hash(s, from, to);
+            String key = find(table, s, from, to, hash);
+            if (key != null) return key;
+            key = s.subSequence(from, to).toString();
+            lock.lock();
+            try {
+                String[] t = table;
+                String existing = find(t, s, from, to, hash);
+                if (existing != null) return existing;
+                if (size >= maxKeys) return key;
+                if ((size + 1) * 2 > t.length) {
+                    String[] bigger = new String[t.length * 2];
+                    for (String k : t) {
+                        if (k != null) insert(bigger, k);
+                    }
+                    t = bigger;
+                }
+                insert(t, key);
+                size++;
+                // volatile yazım: yeni slot (ve büyütülmüş tablo) okuyuculara görünür olur
+                table = t;
+                return key;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // String.hashCode ile aynı
+        private static int hash(CharSequence s, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) h = 31 * h + s.charAt(i);
+            return h;
+        }
+
+        private static int slot(int hash, int mask) {
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        private static String find(String[] t, CharSequence s, int from, int to, int hash) {
+            int mask = t.length - 1;
+            for (int i = slot(hash, mask); ; i = (i + 1) & mask) {
+                String candidate = t[i];
+                if (candidate == null) return null;
+                if (candidate.hashCode() == hash && Tokens.is(s, from, to, candidate)) return candidate;
+            }
+        }
+
+        private static void insert(String[] t, String key) {
+            int mask = t.length - 1;
+            int i = slot(key.hashCode(), mask);
+            while (t[i] != null) i = (i + 1) & mask;
+            t[i] = key;
+        }
+    }
+//=====================================================================================================
+    /**
+     * -shard için consistent-hash ring. Her node ring'e "adres:port#i" isimli virtualNodes kadar
+     * nokta olarak yerleşir; key'in sahibi, key'in hash'inden sonra gelen ilk noktanın node'udur.
+     * Node eklenip çıkarıldığında yalnızca o node'un noktalarının önündeki aralıklar, yani
+     * key'lerin yaklaşık 1/N'i yer değiştirir. Hash JVM'den bağımsızdır: aynı -server listesiyle
+     * başlatılan bütün proxy'ler key'leri aynı node'lara koyar.
+     *
+     * Noktalar sıralı bir long[]'dadır; hash'in üst bitleriyle seçilen bucket, o aralıktaki ilk
+     * noktanın index'ini verir. Bucket sayısı nokta sayısının en az 4 katı olduğundan lookup
+     * ortalama bir iki karşılaştırmadır, ikili arama da nesne oluşturma da yoktur.
+     */
+    static final class HashRing {
+        private final long[] points;
+        private final ServerInfo[] owners;
+        private final int[] buckets;
+        private final int shift;
+        private final int nodeCount;
+
+        HashRing(List<ServerInfo> nodes, int virtualNodes) {
+            if (nodes.isEmpty() || virtualNodes < 1) throw new IllegalArgumentException("Empty hash ring");
+            nodeCount = nodes.size();
+            int count = nodes.size() * virtualNodes;
+            long[][] placed = new long[count][];
+            int n = 0;
+            for (int node = 0; node < nodes.size(); node++) {
+                ServerInfo server = nodes.get(node);
+                for (int v = 0; v < virtualNodes; v++) {
+                    placed[n++] = new long[]{position(server.address + ":" + server.port + "#" + v), node};
+                }
+            }
+            Arrays.sort(placed, (a, b) -> Long.compare(a[0], b[0]));
+            points = new long[count];
+            owners = new ServerInfo[count];
+            for (int i = 0; i < count; i++) {
+                points[i] = placed[i][0];
+                owners[i] = nodes.get((int) placed[i][1]);
+            }
+
+            int bits = Integer.numberOfTrailingZeros(Integer.highestOneBit(count)) + 3;
+            shift = 63 - bits;
+            buckets = new int[1 << bits];
+            int i = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                long start = (long) b << shift;
+                while (i < count && points[i] < start) i++;
+                buckets[b] = i;
+            }
+        }
+
+        ServerInfo owner(CharSequence key) {
+            return owners[indexOf(position(key))];
+        }
+
+        /** Key'in sahibi ve ring'de onu izleyen farklı node'lar, tercih sırasıyla (en fazla node sayısı kadar). */
+        ServerInfo[] replicas(CharSequence key, int count) {
+            ServerInfo[] chosen = new ServerInfo[Math.min(count, nodeCount)];
+            int found = 0;
+            for (int i = indexOf(position(key)); found < chosen.length; i = i + 1 == points.length ? 0 : i + 1) {
+                ServerInfo candidate = owners[i];
+                boolean seen = false;
+                for (int j = 0; j < found && !seen; j++) seen = chosen[j] == candidate;
+                if (!seen) chosen[found++] = candidate;
+            }
+            return chosen;
+        }
+
+        // h'den sonra gelen ilk nokta; son noktadan sonrası ring'in başına sarar
+        private int indexOf(long h) {
+            int i = buckets[(int) (h >>> shift)];
+            while (i < points.length && points[i] < h) i++;
+            return i == points.length ? 0 : i;
+        }
+
+        int size() {
+            return points.length;
+        }
+
+        // 64-bit FNV-1a + MurmurHash3 fmix64; sıralamanın işaretsiz olması için 63 bite indirilir
+        static long position(CharSequence s) {
+            long h = 0xCBF29CE484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001B3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            h ^= h >>> 33;
+            return h >>> 1;
+        }
+    }
+//=====================================================================================================
+    /**
+     * Komut tipi başına istek / hata sayaçları ve gecikme histogramları, discovery süresi ve
+     * açık istemci bağlantısı sayısı. Her şey önceden oluşturulur; kayıt yolunda yalnızca
+     * atomik artırım yapılır, nesne oluşturulmaz.
+     */
+    static class Metrics {
+        enum Command {
+            GET_NAMES("GET NAMES"), GET_VALUE("GET VALUE"), SET("SET"), PROXYNAMES("PROXYNAMES"),
+            MGET("MGET"), MSET("MSET"), OTHER("OTHER");
+
+            final String label;
+
+            Command(String label) {
+                this.label = label;
+            }
+        }
+
+        // values() her çağrıda yeni dizi döner
+        static final Command[] COMMANDS = Command.values();
+        // Prometheus histogram kovaları (saniye)
+        static final double[] BUCKET_SECONDS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+        static final String[] BUCKET_LABELS = new String[BUCKET_SECONDS.length];
+        static {
+            for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+                BUCKET_LABELS[i] = java.math.BigDecimal.valueOf(BUCKET_SECONDS[i]).stripTrailingZeros().toPlainString();
+            }
+        }
+
+        final AtomicLongArray requests = new AtomicLongArray(COMMANDS.length);
+        final AtomicLongArray errors = new AtomicLongArray(COMMANDS.length);
+        final LatencyHistogram[] latency = new LatencyHistogram[COMMANDS.length];
+        final LatencyHistogram discovery = new LatencyHistogram();
+        final AtomicInteger activeConnections = new AtomicInteger();
+
+        Metrics() {
+            for (int i = 0; i < latency.length; i++) latency[i] = new LatencyHistogram();
+        }
+
+        // Etiket executeCommand'daki gibi tam kelimeyle seçilir; "SETX" ya da "GET VALUES" OTHER sayılır
+        static Command commandOf(CharSequence request) {
+            int from = Tokens.skipSpaces(request, 0);
+            int to = Tokens.tokenEnd(request, from);
+            if (Tokens.is(request, from, to, "GET")) {
+                int typeFrom = Tokens.skipSpaces(request, to);
+                int typeTo = Tokens.tokenEnd(request, typeFrom);
+                if (Tokens.is(request, typeFrom, typeTo, "VALUE")) return Command.GET_VALUE;
+                if (Tokens.is(request, typeFrom, typeTo, "NAMES")) return Command.GET_NAMES;
+                return Command.OTHER;
+            }
+            if (Tokens.is(request, from, to, "SET")) return Command.SET;
+            if (Tokens.is(request, from, to, "PROXYNAMES")) return Command.PROXYNAMES;
+            if (Tokens.is(request, from, to, "MGET")) return Command.MGET;
+            if (Tokens.is(request, from, to, "MSET")) return Command.MSET;
+            return Command.OTHER;
+        }
+
+        // NA ya da cevapsız (null) sonuç hata sayılır
+        void record(Command command, long nanos, String response) {
+            int i = command.ordinal();
+            requests.incrementAndGet(i);
+            if (response == null || response.equals("NA")) errors.incrementAndGet(i);
+            latency[i].record(nanos);
+        }
+
+        static void appendHistogram(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+            String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+            for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+                sb.append(name).append("_bucket").append(prefix).append("le=\"").append(BUCKET_LABELS[i]).append("\"} ")
+                        .append(histogram.countAtOrBelow((long) (BUCKET_SECONDS[i] * 1e9))).append('\n');
+            }
+            sb.append(name).append("_bucket").append(prefix).append("le=\"+Inf\"} ").append(histogram.count()).append('\n');
+            String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+            sb.append(name).append("_sum").append(suffix).append(histogram.sum() / 1e9).append('\n');
+            sb.append(name).append("_count").append(suffix).append(histogram.count()).append('\n');
+        }
+    }
+//=====================================================================================================
+    public static void main(String[] args) {
+        int port = 0;
+        int poolSize = 8;
+        long poolIdleMillis = 15000;
+        boolean nioMode = false;
+        boolean hedging = false;
+        int metricsPort = 0;
+        int workerThreads = 0;
+        int workerQueueSize = 10000;
+        int maxConnections = 0;
+        Admission.Policy overloadPolicy = Admission.Policy.BUSY;
+        long queueTimeoutMillis = 2000;
+        boolean virtualThreads = false;
+        long clientIdleMillis = 30000;
+        long discoveryTimeoutMillis = 5000;
+        long routeTtlMillis = 10000;
+        int negativeCacheSize = 10000;
+        long negativeTtlMillis = 5000;
+        int valueCacheSize = 0;
+        long valueTtlMillis = 1000;
+        Map<String, Long> keyTtls = new HashMap<>();
+        int breakerFailures = 3;
+        long breakerOpenMillis = 5000;
+        long healthIntervalMillis = 2000;
+        long timeoutFloorMillis = 50;
+        long timeoutCeilingMillis = 5000;
+        boolean sharding = false;
+        int virtualNodes = 160;
+        int replicas = 1;
+        int writeQuorum = 0;
+        int readQuorum = 1;
+        long coalesceMillis = 0;
+        boolean immediateAck = false;
+        List<ServerInfo> servers = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length;) {
+                switch (args[i]) {
+                    case "-port":
+                        port = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-server":
+                        String address = args[i + 1];
+                        int serverPort = Integer.parseInt(args[i + 2]);
+                        servers.add(new ServerInfo(address, serverPort));
+                        i += 3;
+                        break;
+                    case "-poolsize":
+                        poolSize = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-poolidle":
+                        poolIdleMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-log":
+                        Log.level = Log.Level.valueOf(args[i + 1].toUpperCase(Locale.ROOT));
+                        i += 2;
+                        break;
+                    case "-metricsport":
+                        metricsPort = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-hedge":
+                        hedging = true;
+                        i += 1;
+                        break;
+                    case "-nio":
+                        nioMode = true;
+                        i += 1;
+                        break;
+                    case "-shard":
+                        sharding = true;
+                        i += 1;
+                        break;
+                    case "-vnodes":
+                        virtualNodes = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-replicas":
+                        replicas = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-writequorum":
+                        writeQuorum = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-readquorum":
+                        readQuorum = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-coalesce":
+                        coalesceMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-ackmode":
+                        if (!args[i + 1].equals("immediate") && !args[i + 1].equals("flushed")) {
+                            System.err.println("Unknown ack mode: " + args[i + 1]);
+                            System.exit(1);
+                        }
+                        immediateAck = args[i + 1].equals("immediate");
+                        i += 2;
+                        break;
+                    case "-workers":
+                        workerThreads = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-queue":
+                        workerQueueSize = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-maxconnections":
+                        maxConnections = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-queuetimeout":
+                        queueTimeoutMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-overload":
+                        if (!args[i + 1].equals("busy") && !args[i + 1].equals("drop") && !args[i + 1].equals("block")) {
+                            System.err.println("Unknown overload policy: " + args[i + 1]);
+                            System.exit(1);
+                        }
+                        overloadPolicy = Admission.Policy.valueOf(args[i + 1].toUpperCase(Locale.ROOT));
+                        i += 2;
+                        break;
+                    case "-idle":
+                        clientIdleMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-discoverytimeout":
+                        discoveryTimeoutMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-routettl":
+                        routeTtlMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-negsize":
+                        negativeCacheSize = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-negttl":
+                        negativeTtlMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-cache":
+                        valueCacheSize = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-cachettl":
+                        valueTtlMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-keyttl":
+                        keyTtls.put(args[i + 1], Long.parseLong(args[i + 2]));
+                        i += 3;
+                        break;
+                    case "-breakerfailures":
+                        breakerFailures = Integer.parseInt(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-breakeropen":
+                        breakerOpenMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-healthinterval":
+                        healthIntervalMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-timeoutmin":
+                        timeoutFloorMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-timeoutmax":
+                        timeoutCeilingMillis = Long.parseLong(args[i + 1]);
+                        i += 2;
+                        break;
+                    case "-threads":
+                        if (!args[i + 1].equals("virtual") && !args[i + 1].equals("platform")) {
+                            System.err.println("Unknown thread mode: " + args[i + 1]);
+                            System.exit(1);
+                        }
+                        virtualThreads = args[i + 1].equals("virtual");
+                        i += 2;
+                        break;
+                    default:
+                        System.err.println("Unknown parameter: " + args[i]);
+                        System.exit(1);
+                }
+            }
+            if (port == 0 || servers.isEmpty()) {
+                System.err.println("Incorrect execution syntax");
+                System.exit(1);
+            }
+            if (replicas < 1 || writeQuorum > replicas || readQuorum < 1 || readQuorum > replicas) {
+                System.err.println("Quorums must be between 1 and -replicas");
+                System.exit(1);
+            }
+            // Hint'ler yalnızca health check'te gönderilir; o olmadan kaçırılan SET'ler hiç ulaşmaz
+            if (replicas > 1 && healthIntervalMillis <= 0) {
+                System.err.println("-replicas needs -healthinterval > 0 to replay missed writes");
+                System.exit(1);
+            }
+            Proxy proxy = new Proxy(port, servers);
+            proxy.poolSize = poolSize;
+            proxy.poolIdleMillis = poolIdleMillis;
+            proxy.nioMode = nioMode;
+            proxy.hedging = hedging;
+            // Replikalar ring'den seçilir
+            proxy.sharding = sharding || replicas > 1;
+            proxy.replicas = replicas;
+            proxy.writeQuorum = writeQuorum;
+            proxy.readQuorum = readQuorum;
+            proxy.coalesceMillis = coalesceMillis;
+            proxy.immediateAck = immediateAck;
+            if (virtualNodes > 0) proxy.virtualNodes = virtualNodes;
+            proxy.metricsPort = metricsPort;
+            if (workerThreads > 0) proxy.workerThreads = workerThreads;
+            if (workerQueueSize > 0) proxy.workerQueueSize = workerQueueSize;
+            if (maxConnections > 0) proxy.maxConnections = maxConnections;
+            proxy.overloadPolicy = overloadPolicy;
+            proxy.queueTimeoutMillis = queueTimeoutMillis;
+            proxy.virtualThreads = virtualThreads;
+            proxy.clientIdleMillis = clientIdleMillis;
+            proxy.discoveryTimeoutMillis = discoveryTimeoutMillis;
+            proxy.routeTtlMillis = routeTtlMillis;
+            proxy.negativeCacheSize = negativeCacheSize;
+            proxy.negativeTtlMillis = negativeTtlMillis;
+            proxy.valueCacheSize = valueCacheSize;
+            proxy.valueTtlMillis = valueTtlMillis;
+            proxy.keyTtls = keyTtls;
+            proxy.breakerFailures = breakerFailures;
+            proxy.breakerOpenMillis = breakerOpenMillis;
+            proxy.healthIntervalMillis = healthIntervalMillis;
+            proxy.timeoutFloorMillis = timeoutFloorMillis;
+            proxy.timeoutCeilingMillis = timeoutCeilingMillis;
+            proxy.start();
+        }
+        catch (Exception e){System.err.println("Error: " + e.getMessage());System.exit(1);}
+    }
+//=====================================================================================================
+    public Proxy(int port, List<ServerInfo> servers) {
+        this.port = port;
+        this.servers = servers;
+    }
+    public void start() {
+        // 0) Upstream bağlantı havuzları ve arka plan temizliği
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "proxy-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        for (ServerInfo server : servers) {
+            server.pool = new ConnectionPool(poolSize, poolIdleMillis);
+            server.breaker = new CircuitBreaker(server, breakerFailures, breakerOpenMillis);
+        }
+        long evictEvery = Math.max(1000, poolIdleMillis / 2);
+        scheduler.scheduleWithFixedDelay(() -> {
+            for (ServerInfo server : servers) server.pool.evictIdle();
+        }, evictEvery, evictEvery, TimeUnit.MILLISECONDS);
+
+        handlerThreads = newHandlerThreadFactory();
+        admission = new Admission(handlerLimit(), workerQueueSize, overloadPolicy, queueTimeoutMillis, handlerThreads);
+        if (!nioMode) connectionSlots = new Semaphore(connectionLimit());
+        // Kuyrukta süresi dolan işler sıraları gelmesini beklemeden cevaplanır
+        if (queueTimeoutMillis > 0) {
+            long sweepEvery = Math.max(10, queueTimeoutMillis / 10);
+            scheduler.scheduleWithFixedDelay(admission::expireQueued, sweepEvery, sweepEvery, TimeUnit.MILLISECONDS);
+        }
+        upstreamCalls = newHandlerExecutor();
+        try {
+            udpUpstream = new UdpMultiplexer();
+        } catch (IOException e) {
+            Log.error("Could not open upstream UDP channel: {}", e.getMessage());
+            System.exit(1);
+        }
+        missingKeys = new NegativeCache(negativeCacheSize, negativeTtlMillis);
+        if (coalesceMillis > 0) {
+            coalescer = new WriteCoalescer(coalesceMillis, scheduler, upstreamCalls, this::writeCoalesced);
+            Log.info("Coalescing SETs per key over {} ms, {} acknowledgements", coalesceMillis, immediateAck ? "immediate" : "flushed");
+        }
+        values = new ValueCache(valueCacheSize, valueTtlMillis, keyTtls);
+
+        if (sharding) {
+            ring = new HashRing(servers, virtualNodes);
+            Log.info("Sharding keys over {} nodes with {} virtual nodes each", servers.size(), virtualNodes);
+            if (replicas > servers.size()) {
+                Log.warn("Only {} nodes, using {} replicas", servers.size(), servers.size());
+                replicas = servers.size();
+            }
+            if (writeQuorum < 1 || writeQuorum > replicas) writeQuorum = replicas / 2 + 1;
+            readQuorum = Math.min(readQuorum, replicas);
+            if (replicas > 1) {
+                Log.info("Replicating keys on {} nodes, write quorum {}, read quorum {}", replicas, writeQuorum, readQuorum);
+            }
+        }
+
+        // 1) Hangi node TCP / UDP, önce onu bul
+        discoverServers();
+
+        // Node'ları arka planda yokla, devre kesicileri güncel tut
+        if (healthIntervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::checkHealth, healthIntervalMillis, healthIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        if (metricsPort > 0) {
+            Thread metricsThread = new Thread(this::startMetricsListener, "proxy-metrics");
+            metricsThread.setDaemon(true);
+            metricsThread.start();
+        }
+
+        // Routing tablosunu TTL dolmadan arka planda tazele
+        if (routeTtlMillis > 0) {
+            long refreshEvery = Math.max(1000, routeTtlMillis / 2);
+            scheduler.scheduleWithFixedDelay(this::refreshRoutesQuietly, refreshEvery, refreshEvery, TimeUnit.MILLISECONDS);
+        }
+
+        // 2) Listener'ları aç
+        if (nioMode) {
+            Thread nioThread = new Thread(this::startNIOListener, "proxy-selector");
+            nioThread.start();
+            try {
+                nioThread.join();
+            } catch (InterruptedException e) {
+                Log.warn("Interrupted: {}", e.getMessage());
+            }
+            return;
+        }
+        Thread tcpThread = new Thread(this::startTCPListener);
+        Thread udpThread = new Thread(this::startUDPListener);
+
+        tcpThread.start();
+        udpThread.start();
+
+        try {
+            tcpThread.join();
+            udpThread.join();
+        } catch (InterruptedException e) {
+            Log.warn("Interrupted: {}", e.getMessage());
+        }
+    }
+    // ---------------------------------------------------
+    // DISCOVERY KISMI
+    // ---------------------------------------------------
+    private void discoverServers() {
+        // Protokol tespiti node başına bağımsız, hepsini aynı anda yapıyoruz
+        List<Callable<Void>> probes = new ArrayList<>();
+        for (ServerInfo server : servers) {
+            probes.add(() -> {
+                detectProtocol(server);
+                return null;
+            });
+        }
+        try {
+            upstreamCalls.invokeAll(probes);
+        } catch (InterruptedException e) {
+            Log.warn("Interrupted: {}", e.getMessage());
+        }
+        // İlk routing tablosu için bir kez global discovery yap
+        String response = refreshRoutes();
+        // Çok key'li server'larda liste binlerce key olabilir, tamamı sadece debug'da
+        Log.info("Initial keys: {} discovered", keyRoutes.size());
+        Log.debug("Initial keys: {}", response);
+    }
+    //=====================================================================================================
+    private void detectProtocol(ServerInfo server) {
+        // Önce TCP dene
+        boolean isTCP = tryTCP(server);
+        if (isTCP) {
+            server.isTCP = true;
+            Log.info("Server {} is TCP", server);
+        } else {
+            // Olmazsa UDP
+            server.isTCP = false;
+            if (tryUDP(server)) {
+                Log.info("Server {} is UDP", server);
+            } else {
+                Log.warn("Could not connect to {}:{}", server.address, server.port);
+            }
+        }
+    }
+    //=====================================================================================================
+    private boolean tryTCP(ServerInfo server) {
+        try {
+            Socket socket = new Socket();
+            int timeout = timeoutFor(server, "GET NAMES");
+            socket.connect(new InetSocketAddress(server.address, server.port), timeout);
+            socket.setSoTimeout(timeout);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            out.println("GET NAMES");
+            String response = in.readLine();
+
+            in.close();
+            out.close();
+            socket.close();
+
+            return response != null && response.startsWith("OK");
+        }
+        catch (IOException e) {return false;}
+    }
+    //=====================================================================================================
+    // İlk istek etiketli gider: etiketi geri yollayan node bundan sonra ortak kanalı kullanır,
+    // etiketi anlamayan yabancı server'a düz GET NAMES ile tekrar sorulur
+    private boolean tryUDP(ServerInfo server) {
+        try {
+            String response = udpUpstream.request(server, "@0 GET NAMES", timeoutFor(server, "GET NAMES"), true);
+            if (response == null) return false;
+            if (response.startsWith("@0 OK")) {
+                server.echoesTags = true;
+                return true;
+            }
+            server.echoesTags = false;
+            response = udpUpstream.request(server, "GET NAMES", timeoutFor(server, "GET NAMES"), true);
+            return response != null && response.startsWith("OK");
+        } catch (Exception e) {
+            return false;
+        }
+    }
+    // ---------------------------------------------------
+    // PROXY → NODE KOMUT GÖNDERME
+    // ---------------------------------------------------
+    private String sendCommand(ServerInfo server, String command) {
+        return sendCommand(server, command, timeoutFor(server, command));
+    }
+
+    /**
+     * Düz server'lar ve PING için timeout node'un RTT tahmininden gelir. Proxy'ye giden diğer
+     * komutlar karşı tarafta fan-out ya da (bilinmeyen key için) yeniden tarama yapabilir; RTT
+     * tahmini bunu öngöremez, o yüzden tavan değeri ve en az bir discovery süresi kadar beklenir.
+     */
+    private int timeoutFor(ServerInfo server, String command) {
+        if (!server.isProxy || command.equals("PING")) {
+            return (int) server.rtt.timeout(UPSTREAM_TIMEOUT_MILLIS, timeoutFloorMillis, timeoutCeilingMillis);
+        }
+        return (int) Math.max(timeoutCeilingMillis, discoveryTimeoutMillis);
+    }
+
+    // RTT tahminine yalnızca karşı tarafta iş yükü sabit olan komutların süresi katılır
+    static boolean isLatencySample(String command) {
+        return command.startsWith("GET VALUE") || command.startsWith("SET ") || command.equals("PING");
+    }
+
+    private String sendCommand(ServerInfo server, String command, int timeoutMillis) {
+        if (command.startsWith("QUIT")) {
+            return sendWithFallback(server, command, timeoutMillis);
+        }
+        // Devre açıksa node'u hiç denemeden hemen başarısız ol (timeout bekleme yok)
+        if (!server.breaker.allowRequest()) {
+            return null;
+        }
+        long started = System.nanoTime();
+        boolean[] transportError = new boolean[1];
+        String response = sendWithFallback(server, command, timeoutMillis, transportError);
+        if (response != null) {
+            server.latency.record(System.nanoTime() - started);
+            server.breaker.onSuccess();
+        } else if (transportError[0] || !server.isProxy || command.equals("PING")) {
+            server.breaker.onFailure();
+        }
+        // Proxy'nin komuta yalnızca geç kalması (arkasındaki yavaş bir node ya da yeniden tarama)
+        // proxy'nin kendisinin düştüğünü göstermez; devreyi bağlantı hataları ve PING açar
+        return response;
+    }
+
+    private String sendWithFallback(ServerInfo server, String command, int timeoutMillis) {
+        return sendWithFallback(server, command, timeoutMillis, new boolean[1]);
+    }
+
+    // transportError[0]: denemelerden biri timeout dışında bir hatayla (bağlantı, I/O) bitti
+    private String sendWithFallback(ServerInfo server, String command, int timeoutMillis, boolean[] transportError) {
+        // İlk önce belirlenen protokolü dene
+        String response = null;
+        boolean currentProtocol = server.isTCP;
+        
+        if (currentProtocol) {
+            response = sendTCPCommand(server, command, timeoutMillis, transportError);
+            // TCP başarısız olduysa, UDP'yi dene (fallback)
+            if (response == null && !command.startsWith("QUIT")) {
+                Log.warn("TCP failed for {}, trying UDP fallback", server);
+                server.fallbacks.incrementAndGet();
+                response = sendUDPCommand(server, command, timeoutMillis, transportError);
+                // UDP başarılı olduysa, bundan sonra bu sunucu için UDP kullan
+                if (response != null) {
+                    server.isTCP = false;
+                    markRoutesStale();
+                }
+            }
+        } else {
+            response = sendUDPCommand(server, command, timeoutMillis, transportError);
+            // UDP başarısız olduysa, TCP'yi dene (fallback)
+            if (response == null && !command.startsWith("QUIT")) {
+                Log.warn("UDP failed for {}, trying TCP fallback", server);
+                server.fallbacks.incrementAndGet();
+                response = sendTCPCommand(server, command, timeoutMillis, transportError);
+                // TCP başarılı olduysa, bundan sonra bu sunucu için TCP kullan
+                if (response != null) {
+                    server.isTCP = true;
+                    markRoutesStale();
+                }
+            }
+        }
+        return response;
+    }
+
+    private String sendTCPCommand(ServerInfo server, String command, int timeoutMillis, boolean[] transportError) {
+        if (command.startsWith("QUIT")) {
+            server.pool.closeAll();
+            UpstreamConnection conn = null;
+            try {
+                conn = UpstreamConnection.open(server, UPSTREAM_TIMEOUT_MILLIS);
+                conn.send(command);
+            }
+            catch (IOException e){Log.warn("TCP error with {}: {}", server, e.getMessage());}
+            finally {if (conn != null) conn.close();}
+            return null;
+        }
+
+        boolean sample = isLatencySample(command);
+        // Önce havuzdaki açık bağlantıyı dene
+        UpstreamConnection conn = server.pool.borrow();
+        if (conn != null) {
+            try {
+                long sentAt = System.nanoTime();
+                String response = conn.roundTrip(command, timeoutMillis);
+                if (response != null) {
+                    if (sample) server.rtt.sample((System.nanoTime() - sentAt) / 1e6);
+                    server.pool.reuseSucceeded();
+                    server.pool.release(conn);
+                    return response;
+                }
+            } catch (SocketTimeoutException e) {
+                // Node yavaş, bağlantı kopuk değil: yeniden göndermek yerine fallback'e bırak
+                server.rtt.backoff();
+                conn.close();
+                Log.warn("TCP error with {}: {}", server, e.getMessage());
+                return null;
+            } catch (IOException e) {
+                // Broken pipe / reset: aşağıda yeni bağlantı ile tekrar deniyoruz
+            }
+            conn.close();
+            server.pool.reuseFailed();
+        }
+
+        // Havuz boş ya da bağlantı kopuk: yeni bağlantı aç
+        conn = null;
+        try {
+            conn = UpstreamConnection.open(server, timeoutMillis);
+            long sentAt = System.nanoTime();
+            String response = conn.roundTrip(command, timeoutMillis);
+            if (response == null) {
+                // Node cevap vermeden bağlantıyı kapattı
+                transportError[0] = true;
+                conn.close();
+                return null;
+            }
+            // Dolu TCPServer BUSY yazıp bağlantıyı kapatır: havuza konmaz
+            if (response.equals("BUSY")) {
+                conn.close();
+                return response;
+            }
+            if (sample) server.rtt.sample((System.nanoTime() - sentAt) / 1e6);
+            server.pool.release(conn);
+            return response;
+        }
+        catch (IOException e){
+            if (e instanceof SocketTimeoutException) server.rtt.backoff();
+            // Bağlanamamak her durumda bağlantı hatasıdır; bağlantı kurulduktan sonra yalnızca timeout değilse
+            if (conn == null || !(e instanceof SocketTimeoutException)) transportError[0] = true;
+            if (conn != null) conn.close();
+            Log.warn("TCP error with {}: {}", server, e.getMessage());
+            return null;
+        }
+    }
+
+    private String sendUDPCommand(ServerInfo server, String command, int timeoutMillis, boolean[] transportError) {
+        try {
+            String response = udpUpstream.request(server, command, timeoutMillis, !command.startsWith("PROXYNAMES"));
+            if (response == null && !command.startsWith("QUIT")) {
+                Log.warn("UDP error with {}: Receive timed out", server);
+            }
+            return response;
+        } catch (IOException e) {
+            transportError[0] = true;
+            Log.warn("UDP error with {}: {}", server, e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------
+    // HEALTH CHECK
+    // ---------------------------------------------------
+    // Her node'a paralel PING atar. Düz server'lar bilinmeyen komuta NA der; cevap gelmesi
+    // node'un ayakta olduğunu göstermeye yeter.
+    private void checkHealth() {
+        for (ServerInfo server : servers) {
+            try {
+                upstreamCalls.execute(() -> {
+                    String response = sendWithFallback(server, "PING", timeoutFor(server, "PING"));
+                    if (response != null) {
+                        if (server.breaker.state() != CircuitBreaker.State.CLOSED) markRoutesStale();
+                        server.breaker.onSuccess();
+                        if (!server.hints.isEmpty()) replayHints(server);
+                    } else {
+                        server.breaker.onFailure();
+                    }
+                });
+            } catch (RejectedExecutionException ignored) {
+            }
+        }
+    }
+
+    // Upstream proxy'lerin "@<id> <komut>" etiketini cevapta geri yolluyoruz
+    private String processDatagram(CharSequence request) {
+        int from = Tokens.skipSpaces(request, 0);
+        if (from < request.length() && request.charAt(from) == '@') {
+            int space = Tokens.tokenEnd(request, from);
+            if (space == request.length()) {
+                return "NA";
+            }
+            String response = processCommand(request.subSequence(space + 1, request.length()));
+            return response == null ? null : request.subSequence(from, space) + " " + response;
+        }
+        return processCommand(request);
+    }
+
+    // ---------------------------------------------------
+    // DINLEYICILER (TCP / UDP)
+    // ---------------------------------------------------
+
+    private void startTCPListener() {
+        try {
+            ServerSocket serverSocket = new ServerSocket(port);
+            Log.info("TCP listener started on port {}", port);
+
+            while (running) {
+                try {
+                    Socket clientSocket = serverSocket.accept();
+                    // -overload block'ta burada beklenir; yeni bağlantılar kernel backlog'unda birikir
+                    if (admission.policy == Admission.Policy.BLOCK) {
+                        connectionSlots.acquire();
+                    } else if (!connectionSlots.tryAcquire()) {
+                        admission.reject();
+                        refuseTCP(clientSocket);
+                        continue;
+                    }
+                    handlerThreads.newThread(() -> {
+                        try {
+                            handleTCPClient(clientSocket);
+                        } finally {
+                            connectionSlots.release();
+                        }
+                    }).start();
+                }
+                catch (InterruptedException e) {
+                    Log.warn("Interrupted: {}", e.getMessage());
+                    break;
+                }
+                catch (IOException e) {
+                    if (running) {
+                        Log.warn("TCP accept error: {}", e.getMessage());
+                    }
+                }
+            }
+            serverSocket.close();
+        }
+        catch (IOException e) {Log.error("TCP listener error: {}", e.getMessage());}
+    }
+
+    private static final byte[] BUSY_LINE = "BUSY\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Kabul edilmeyen bağlantı: -overload drop değilse önce BUSY yazılır
+    private void refuseTCP(Socket clientSocket) {
+        if (admission.replyBusy) {
+            try {
+                clientSocket.getOutputStream().write(BUSY_LINE);
+                clientSocket.shutdownOutput();
+                // Okunmamış istek varken close() RST gönderir ve BUSY istemciye ulaşmayabilir;
+                // istemcinin cevabı okuması için kapatmayı biraz geciktir
+                scheduler.schedule(() -> closeQuietly(clientSocket), 1, TimeUnit.SECONDS);
+                return;
+            } catch (IOException ignored) {
+            } catch (RejectedExecutionException ignored) {
+            }
+        }
+        closeQuietly(clientSocket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+    //=====================================================================================================
+    /**
+     * Bağlantı EOF gelene ya da clientIdleMillis boyunca istek gelmeyene kadar açık kalır.
+     * İstekler sırayla işlendiği için pipelined istekler de geliş sırasıyla cevaplanır.
+     * Her komut -nio'daki gibi ayrı ayrı Admission'dan geçer (bkz. executeAdmitted); boşta
+     * bekleyen bağlantı worker tutmaz.
+     */
+    private void handleTCPClient(Socket clientSocket) {
+        metrics.activeConnections.incrementAndGet();
+        try {
+            clientSocket.setSoTimeout((int) clientIdleMillis);
+            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream());
+            // Cevaplar PrintWriter/encoder yerine bu diziye ASCII olarak kodlanıp yazılır
+            byte[] line = new byte[256];
+            String request;
+            while ((request = in.readLine()) != null) {
+                String response;
+                try {
+                    response = executeAdmitted(request);
+                } catch (RejectedExecutionException e) {
+                    // Kuyruk dolu ya da komut kuyrukta fazla bekledi; drop'ta bağlantı kapanır
+                    if (!admission.replyBusy) break;
+                    response = "BUSY";
+                }
+
+                // QUIT durumunda response null olabilir
+                if (response != null) {
+                    if (line.length < response.length() + 1) line = new byte[response.length() + 1];
+                    int encoded = Tokens.encodeLine(response, line, 0);
+                    if (encoded >= 0) {
+                        out.write(line, 0, encoded);
+                    } else {
+                        out.write((response + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+
+                // Arkada bekleyen pipelined istek yoksa biriken cevapları tek seferde gönder
+                if (!in.ready()) out.flush();
+            }
+            out.flush();
+        }
+        catch (SocketTimeoutException e) {/* idle timeout: bağlantıyı kapat */}
+        catch (IOException e) {Log.warn("TCP client handler error: {}", e.getMessage());}
+        catch (InterruptedException e) {Thread.currentThread().interrupt();}
+        finally {
+            metrics.activeConnections.decrementAndGet();
+            closeQuietly(clientSocket);
+        }
+    }
+    /**
+     * Komutu bir worker'da çalıştırıp cevabını bekler. Kabul edilmezse (kuyruk dolu) ya da
+     * kuyrukta süresi dolarsa RejectedExecutionException; sayaçları Admission tutar.
+     */
+    private String executeAdmitted(String request) throws InterruptedException {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        boolean admitted = admission.admit(() -> {
+            try {
+                result.complete(processCommand(request));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }, () -> result.completeExceptionally(new RejectedExecutionException()));
+        if (!admitted) {
+            admission.reject();
+            throw new RejectedExecutionException();
+        }
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+    //=====================================================================================================
+    private void startUDPListener() {
+        try {
+            DatagramSocket socket = new DatagramSocket(port);
+            ReentrantLock sendLock = new ReentrantLock();
+            // En büyük datagram'ı alabilecek tek alım buffer'ı; uzun MGET/MSET kesilmesin
+            byte[] receiveBuffer = new byte[MAX_DATAGRAM];
+            Log.info("UDP listener started on port {}", port);
+
+            while (running) {
+
+                try {
+
+                    DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+                    socket.receive(packet);
+                    // Datagram başına kopya; kısa cevaplar da sonradan bu diziye yazılabilsin diye en az 1024 byte
+                    final byte[] buffer = Arrays.copyOf(receiveBuffer, Math.max(packet.getLength(), 1024));
+
+                    final InetAddress clientAddress = packet.getAddress();
+                    final int clientPort = packet.getPort();
+                    // Datagram başına ayrı buffer: istek String'e çevrilmeden doğrudan buradan ayrıştırılır
+                    final ByteSequence request = new ByteSequence(buffer, 0, packet.getLength());
+
+                    if (Log.debugEnabled()) Log.debug("UDP request from {}:{} => \"{}\"", clientAddress.getHostAddress(), clientPort, request.toString().trim());
+
+                    Runnable refuse = () -> {
+                        // Kuyruk dolu ya da istek kuyrukta fazla bekledi
+                        if (!admission.replyBusy) return;
+                        try {
+                            sendDatagram(socket, sendLock, buffer, busyReply(request), clientAddress, clientPort);
+                        } catch (IOException e) {
+                            Log.warn("UDP response error: {}", e.getMessage());
+                        }
+                    };
+                    boolean admitted = admission.admit(() -> {
+                        try {
+                            String response = processDatagram(request);
+                            if (response == null) {
+                                // QUIT vs. için cevap yok
+                                return;
+                            }
+                            sendDatagram(socket, sendLock, buffer, response, clientAddress, clientPort);
+                            if (Log.debugEnabled()) Log.debug("UDP response sent to {}:{} => \"{}\"", clientAddress.getHostAddress(), clientPort, response);
+                        } catch (IOException e) {
+                            Log.warn("UDP response error: {}", e.getMessage());
+                        } catch (Exception e) {
+                            Log.error("UDP processing error: {}", e.getMessage(), e);
+                        }
+                    }, refuse);
+                    if (!admitted) {
+                        admission.reject();
+                        refuse.run();
+                    }
+                }
+                catch (InterruptedException e) {
+                    Log.warn("Interrupted: {}", e.getMessage());
+                    break;
+                }
+                catch (IOException e) {
+                    if (running) Log.warn("UDP receive error: {}", e.getMessage());
+                }
+            }
+            socket.close();
+        } catch (SocketException e) {Log.error("UDP listener error: {}", e.getMessage());}
+    }
+
+    // İstek işlendi, aynı buffer'a cevabı yaz (UDP cevabında newline yok)
+    private static void sendDatagram(DatagramSocket socket, Lock sendLock, byte[] buffer, String response,
+                                     InetAddress clientAddress, int clientPort) throws IOException {
+        int encoded = Tokens.encodeLine(response, buffer, 0);
+        byte[] responseData = buffer;
+        int length = encoded - 1;
+        if (encoded < 0) {
+            responseData = datagramReply(response);
+            length = responseData.length;
+        }
+        DatagramPacket responsePacket = new DatagramPacket(responseData, length, clientAddress, clientPort);
+        // synchronized virtual thread'i carrier'a sabitler, ReentrantLock sabitlemez
+        sendLock.lock();
+        try {
+            socket.send(responsePacket);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    // Tag'li (@id) istekte BUSY de aynı tag'le döner, yoksa UdpMultiplexer cevabı eşleştiremez
+    static String busyReply(CharSequence request) {
+        int from = Tokens.skipSpaces(request, 0);
+        if (from < request.length() && request.charAt(from) == '@') {
+            return request.subSequence(from, Tokens.tokenEnd(request, from)) + " BUSY";
+        }
+        return "BUSY";
+    }
+
+    // ---------------------------------------------------
+    // NIO DINLEYICI (tek Selector, TCP + UDP)
+    // ---------------------------------------------------
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    // Bir bağlantıda bundan fazla cevapsız pipelined istek birikirse okumayı durduruyoruz
+    private static final int MAX_PIPELINED_REQUESTS = 1024;
+
+    /**
+     * Selector thread'ine ait TCP bağlantı durumu. Worker'lar bu nesneye dokunmaz,
+     * sonuçlarını selectorTasks kuyruğu üzerinden selector thread'ine geri verir.
+     */
+    static class NIOConnection {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+        int scanned;
+        final Deque<CharSequence> pendingRequests = new ArrayDeque<>();
+        // Cevaplar doğrudan buraya kodlanır (yazma modunda: position = gönderilmemiş verinin sonu)
+        ByteBuffer writeBuffer = ByteBuffer.allocate(1024);
+        boolean busy;
+        boolean inputClosed;
+        long lastActivity = System.currentTimeMillis();
+
+        NIOConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Upstream fan-out çağrılarının executor'ı. Virtual thread'ler Java 21 ile geldiği için
+     * reflection ile aranır ve sınırsızdır. Platform thread'lerde havuz worker sayısının iki katıyla
+     * sınırlıdır: fan-out işleri admission'dan geçmiş istekler kadar olsa da (MGET grupları, replika
+     * yazımları, hedge) her biri birkaç thread açabilir. Havuz doluysa iş çağıran thread'de çalışır;
+     * reddedilmez ve havuzdaki bir işin kendi alt işlerini beklerken kilitlenmesine yol açmaz.
+     */
+    private ExecutorService newHandlerExecutor() {
+        if (virtualThreads) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // newHandlerThreadFactory() zaten uyarıyor
+            }
+        }
+        int limit = Math.max(MIN_UPSTREAM_THREADS, 2 * handlerLimit());
+        return new ThreadPoolExecutor(0, limit, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * -workers verilmemişse: -nio'da 4 × CPU. Blocking modda da worker'lar yalnızca komut işler
+     * (bağlantıyı okuyan thread havuz dışındadır), ama komutlar upstream'i beklediği için sınır daha geniştir.
+     */
+    int handlerLimit() {
+        if (workerThreads > 0) return workerThreads;
+        if (virtualThreads && virtualThreadFactory() != null) return 16384;
+        return nioMode ? Runtime.getRuntime().availableProcessors() * 4 : 1024;
+    }
+
+    /**
+     * Blocking modda aynı anda açık tutulabilecek TCP bağlantısı. Virtual thread'lerde bağlantı
+     * başına thread ucuzdur, sınır worker + kuyruk kadardır; platform thread'lerde küçük tutulur.
+     */
+    int connectionLimit() {
+        if (maxConnections > 0) return maxConnections;
+        if (virtualThreads && virtualThreadFactory() != null) return handlerLimit() + workerQueueSize;
+        return DEFAULT_MAX_CONNECTIONS;
+    }
+
+    private ThreadFactory newHandlerThreadFactory() {
+        if (virtualThreads) {
+            ThreadFactory factory = virtualThreadFactory();
+            if (factory != null) {
+                Log.info("Using virtual threads for client handlers");
+                return factory;
+            }
+            Log.warn("Virtual threads are not available on this JVM, using platform threads");
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "proxy-worker-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // Thread.ofVirtual().name("proxy-worker-", 1).factory(); Java 21 öncesinde null
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "proxy-worker-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+    //=====================================================================================================
+    /**
+     * İstemci işlerinin kabulü: blocking modda TCP bağlantıları ve UDP datagram'ları, -nio'da tek
+     * tek komutlar. Sabit sayıda handler thread'i ve önlerinde sınırlı bir kuyruk vardır; kuyruk
+     * dolunca -overload politikası uygulanır:
+     *   busy  -> istemciye hemen "BUSY" cevabı verilir
+     *   drop  -> UDP isteği sessizce düşürülür, TCP bağlantısı kapatılır
+     *   block -> listener kuyrukta yer açılana kadar yeni iş almaz; fazlası kernel'in accept
+     *            backlog'unda ve socket buffer'ında birikir (orada da dolunca kernel düşürür)
+     * Kuyrukta queueTimeout'tan uzun bekleyen iş hiç çalıştırılmaz, reddedilmiş gibi cevaplanır:
+     * istemci büyük ihtimalle çoktan vazgeçmiştir ve o iş diğer isteklerin önündeki süreyi uzatır.
+     */
+    static class Admission {
+        enum Policy {BUSY, DROP, BLOCK}
+
+        final Policy policy;
+        final boolean replyBusy;
+        final int threads;
+        final int capacity;
+        private final long queueTimeoutNanos;
+        private final ThreadPoolExecutor executor;
+
+        final AtomicLong shedBusy = new AtomicLong();
+        final AtomicLong shedDropped = new AtomicLong();
+        final AtomicLong shedExpired = new AtomicLong();
+        final AtomicLong blocked = new AtomicLong();
+
+        Admission(int threads, int capacity, Policy policy, long queueTimeoutMillis, ThreadFactory factory) {
+            this.policy = policy;
+            this.replyBusy = policy != Policy.DROP;
+            this.threads = threads;
+            this.capacity = capacity;
+            this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(capacity), factory);
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        /** Hiç beklemeden kuyruğa koymayı dener (selector thread'i için); doluysa false. */
+        boolean offer(Runnable task, Runnable onExpired) {
+            try {
+                executor.execute(new Queued(task, onExpired));
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        /** Kuyruk doluysa BLOCK politikasında yer açılana kadar bekler, diğerlerinde false döner. */
+        boolean admit(Runnable task, Runnable onExpired) throws InterruptedException {
+            Queued queued = new Queued(task, onExpired);
+            try {
+                executor.execute(queued);
+                return true;
+            } catch (RejectedExecutionException e) {
+                if (policy != Policy.BLOCK || executor.isShutdown()) return false;
+            }
+            // Beklenen süre de isteğin gecikmesine dahil, queueTimeout buradan itibaren sayılır
+            blocked.incrementAndGet();
+            executor.getQueue().put(queued);
+            // Kuyruk doluyken bütün thread'ler çalışıyordu; yine de kuyruğu boşaltacak thread olsun
+            executor.prestartCoreThread();
+            return true;
+        }
+
+        /** Kabul edilmeyen işi politikaya göre sayar (cevabı çağıran verir, bkz. replyBusy). */
+        void reject() {
+            if (replyBusy) {
+                shedBusy.incrementAndGet();
+            } else {
+                shedDropped.incrementAndGet();
+            }
+        }
+
+        int queueDepth() {
+            return executor.getQueue().size();
+        }
+
+        int active() {
+            return executor.getActiveCount();
+        }
+
+        /**
+         * Kuyrukta queueTimeout'u geçen işleri sıraları gelmeden kuyruktan çıkarır ve reddedilmiş
+         * gibi cevaplatır; aksi halde işler ancak bir worker boşalınca fark edilirdi. Kuyruk FIFO
+         * olduğu için süresi dolmamış ilk işte durulur.
+         */
+        void expireQueued() {
+            long now = System.nanoTime();
+            for (Runnable r : executor.getQueue()) {
+                Queued queued = (Queued) r;
+                if (now - queued.enqueued <= queueTimeoutNanos) return;
+                // Worker bu arada almış olabilir: o zaman run() içindeki kontrol cevaplar
+                if (executor.remove(queued)) {
+                    shedExpired.incrementAndGet();
+                    queued.onExpired.run();
+                }
+            }
+        }
+
+        private class Queued implements Runnable {
+            final Runnable task;
+            final Runnable onExpired;
+            final long enqueued = System.nanoTime();
+
+            Queued(Runnable task, Runnable onExpired) {
+                this.task = task;
+                this.onExpired = onExpired;
+            }
+
+            public void run() {
+                if (queueTimeoutNanos > 0 && System.nanoTime() - enqueued > queueTimeoutNanos) {
+                    shedExpired.incrementAndGet();
+                    onExpired.run();
+                    return;
+                }
+                task.run();
+            }
+        }
+    }
+
+    //=====================================================================================================
+    /**
+     * -coalesce: aynı key'e pencere içinde gelen SET'leri tek upstream yazımında birleştirir.
+     * Key'in ilk SET'i bir Pending açar ve pencere süresi sonra yazımı planlar; pencere açıkken
+     * gelen SET'ler yalnızca Pending'in değerini günceller. Pencere kapanınca son değer yazılır.
+     * Aynı key'in yazımları sırayla yapılır: yazımı sürerken açılan pencere, öncekinin bitmesini
+     * bekler, böylece upstream'e eski değer yeni değerden sonra ulaşamaz.
+     * Pending map'ten ancak yazımı bittikten sonra çıkar; pendingValue() bu sayede immediate modda
+     * onaylanmış ama henüz yazılmamış değeri GET VALUE'ya verebilir.
+     */
+    static final class WriteCoalescer {
+        private static final class Pending {
+            volatile int value;
+            // Pencere açıkken yeni SET'ler buraya birleşir; map'in bin kilidi altında değişir
+            boolean open = true;
+            final CompletableFuture<String> result = new CompletableFuture<>();
+            // Aynı key'in bir önceki yazımı; bitmeden bu yazım gönderilmez
+            final CompletableFuture<String> previous;
+
+            Pending(int value, CompletableFuture<String> previous) {
+                this.value = value;
+                this.previous = previous;
+            }
+        }
+
+        private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+        private final long windowMillis;
+        private final ScheduledExecutorService timer;
+        private final Executor writers;
+        private final java.util.function.BiFunction<String, Integer, String> write;
+        final AtomicLong sets = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+
+        WriteCoalescer(long windowMillis, ScheduledExecutorService timer, Executor writers,
+                       java.util.function.BiFunction<String, Integer, String> write) {
+            this.windowMillis = windowMillis;
+            this.timer = timer;
+            this.writers = writers;
+            this.write = write;
+        }
+
+        /** Değeri key'in açık penceresine ekler; dönen future birleştiği upstream yazımının cevabıdır. */
+        CompletableFuture<String> submit(String key, int value) {
+            sets.incrementAndGet();
+            Pending[] opened = new Pending[1];
+            Pending p = pending.compute(key, (k, current) -> {
+                if (current != null && current.open) {
+                    current.value = value;
+                    return current;
+                }
+                opened[0] = new Pending(value, current == null ? null : current.result);
+                return opened[0];
+            });
+            if (p == opened[0]) {
+                timer.schedule(() -> flush(key, p), windowMillis, TimeUnit.MILLISECONDS);
+            }
+            return p.result;
+        }
+
+        /** Henüz upstream'e yazımı bitmemiş son değer; yoksa null. */
+        Integer pendingValue(String key) {
+            Pending p = pending.get(key);
+            return p == null ? null : p.value;
+        }
+
+        int size() {
+            return pending.size();
+        }
+
+        /** Açık pencereleri beklemeden yazar ve hepsinin bitmesini en fazla timeoutMillis bekler. */
+        void flushAll(long timeoutMillis) {
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+                flush(entry.getKey(), entry.getValue());
+                results.add(entry.getValue().result);
+            }
+            try {
+                CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                Log.warn("Coalesced writes not flushed: {}", pending.size());
+            }
+        }
+
+        // Pencereyi kapatır (yalnızca bir kez) ve yazımı, varsa önceki yazım bitince gönderir
+        private void flush(String key, Pending p) {
+            boolean[] closed = new boolean[1];
+            pending.computeIfPresent(key, (k, current) -> {
+                if (current == p && p.open) {
+                    p.open = false;
+                    closed[0] = true;
+                }
+                return current;
+            });
+            if (!closed[0]) return;
+            Runnable send = () -> {
+                String response;
+                try {
+                    writes.incrementAndGet();
+                    response = write.apply(key, p.value);
+                } catch (RuntimeException e) {
+                    response = null;
+                }
+                if (!"OK".equals(response)) failed.incrementAndGet();
+                pending.remove(key, p);
+                p.result.complete(response);
+            };
+            if (p.previous == null) {
+                execute(send);
+            } else {
+                p.previous.whenComplete((r, e) -> execute(send));
+            }
+        }
+
+        private void execute(Runnable send) {
+            try {
+                writers.execute(send);
+            } catch (RejectedExecutionException e) {
+                send.run();
+            }
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+    // -overload block: kuyruğa giremeyen işler (sırayla tekrar denenir); doluyken accept ve UDP okuma durur
+    private final ArrayDeque<BooleanSupplier> stalled = new ArrayDeque<>();
+    private SelectionKey acceptKey;
+    private SelectionKey udpKey;
+
+    private void startNIOListener() {
+        try (ServerSocketChannel tcpChannel = ServerSocketChannel.open();
+             DatagramChannel udpChannel = DatagramChannel.open()) {
+            selector = Selector.open();
+            tcpChannel.bind(new InetSocketAddress(port));
+            tcpChannel.configureBlocking(false);
+            acceptKey = tcpChannel.register(selector, SelectionKey.OP_ACCEPT);
+            Log.info("TCP listener (nio) started on port {}", port);
+
+            udpChannel.bind(new InetSocketAddress(port));
+            udpChannel.configureBlocking(false);
+            udpKey = udpChannel.register(selector, SelectionKey.OP_READ);
+            Log.info("UDP listener (nio) started on port {}", port);
+
+            // Tüm datagramlar için tek, tekrar kullanılan alım buffer'ı
+            ByteBuffer udpBuffer = ByteBuffer.allocate(MAX_DATAGRAM);
+
+            long lastIdleSweep = System.currentTimeMillis();
+            while (running) {
+                // Duran iş varken worker'ların kuyrukta yer açmasını sık aralıklarla kontrol et
+                selector.select(stalled.isEmpty() ? 1000 : 1);
+                long now = System.currentTimeMillis();
+                if (now - lastIdleSweep >= 1000) {
+                    closeIdleNIO(now);
+                    lastIdleSweep = now;
+                }
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+                if (!stalled.isEmpty()) resumeStalledNIO();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    try {
+                        if (key.isAcceptable()) {
+                            acceptNIO(tcpChannel);
+                        } else if (key.channel() == udpChannel) {
+                            receiveNIO(udpChannel, udpBuffer);
+                        } else {
+                            NIOConnection conn = (NIOConnection) key.attachment();
+                            if (key.isReadable()) readNIO(conn);
+                            if (key.isValid() && key.isWritable()) writeNIO(conn);
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() instanceof NIOConnection) {
+                            closeNIO((NIOConnection) key.attachment());
+                        } else if (running) {
+                            Log.error("NIO listener error: {}", e.getMessage());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {Log.error("NIO listener error: {}", e.getMessage());}
+    }
+
+    private void acceptNIO(ServerSocketChannel tcpChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = tcpChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            NIOConnection conn = new NIOConnection(channel);
+            conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+            metrics.activeConnections.incrementAndGet();
+        }
+    }
+
+    private void readNIO(NIOConnection conn) throws IOException {
+        conn.lastActivity = System.currentTimeMillis();
+        int n = conn.channel.read(conn.readBuffer);
+        if (n < 0) {
+            conn.inputClosed = true;
+            // readLine gibi: sonda newline olmadan kalan kısmı da son istek say
+            ByteBuffer buf = conn.readBuffer;
+            if (buf.position() > 0) {
+                conn.pendingRequests.add(new ByteSequence(Arrays.copyOf(buf.array(), buf.position()), 0, buf.position()));
+                buf.clear();
+            }
+            conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_READ);
+        } else {
+            frameLines(conn);
+            if (conn.pendingRequests.size() >= MAX_PIPELINED_REQUESTS) {
+                conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+        dispatchNIO(conn);
+    }
+
+    // readBuffer içindeki tamamlanmış satırları ayırır, yarım satırı buffer'ın başına taşır
+    private void frameLines(NIOConnection conn) throws IOException {
+        ByteBuffer buf = conn.readBuffer;
+        byte[] data = buf.array();
+        int end = buf.position();
+        int start = 0;
+        for (int i = conn.scanned; i < end; i++) {
+            if (data[i] == '\n') {
+                int len = i - start;
+                if (len > 0 && data[start + len - 1] == '\r') len--;
+                conn.pendingRequests.add(new ByteSequence(Arrays.copyOfRange(data, start, start + len), 0, len));
+                start = i + 1;
+            }
+        }
+        if (start > 0) {
+            System.arraycopy(data, start, data, 0, end - start);
+            buf.position(end - start);
+        }
+        conn.scanned = buf.position();
+        if (!buf.hasRemaining()) {
+            if (buf.capacity() >= MAX_LINE_LENGTH) {
+                throw new IOException("Request line too long");
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+            buf.flip();
+            bigger.put(buf);
+            conn.readBuffer = bigger;
+        }
+    }
+
+    // Bağlantı başına aynı anda tek istek işlenir, böylece cevaplar istek sırasıyla gider
+    private void dispatchNIO(NIOConnection conn) {
+        if (conn.busy) return;
+        CharSequence request = conn.pendingRequests.poll();
+        if (request == null) {
+            if (conn.inputClosed && conn.writeBuffer.position() == 0) closeNIO(conn);
+            return;
+        }
+        if (!conn.inputClosed && conn.pendingRequests.size() < MAX_PIPELINED_REQUESTS) {
+            conn.key.interestOps(conn.key.interestOps() | SelectionKey.OP_READ);
+        }
+        conn.busy = true;
+        submitNIO(() -> {
+            String response;
+            try {
+                response = processCommand(request);
+            } catch (Exception e) {
+                Log.warn("TCP client handler error: {}", e.getMessage());
+                response = "NA";
+            }
+            String reply = response;
+            selectorTasks.add(() -> completeNIO(conn, reply));
+            selector.wakeup();
+        }, () -> {
+            selectorTasks.add(() -> refuseNIO(conn));
+            selector.wakeup();
+        }, () -> refuseNIO(conn));
+    }
+
+    // Selector thread'inden çağrılır, hiç beklemez. onRejected selector thread'inde, onExpired worker'da çalışır.
+    private void submitNIO(Runnable task, Runnable onExpired, Runnable onRejected) {
+        if (stalled.isEmpty() && admission.offer(task, onExpired)) return;
+        if (admission.policy != Admission.Policy.BLOCK) {
+            admission.reject();
+            onRejected.run();
+            return;
+        }
+        // Selector bekleyemez: işi sıraya al, yer açılana kadar yeni bağlantı ve datagram alma
+        admission.blocked.incrementAndGet();
+        if (stalled.isEmpty()) pauseNIO(true);
+        stalled.add(() -> admission.offer(task, onExpired));
+    }
+
+    private void resumeStalledNIO() {
+        while (!stalled.isEmpty()) {
+            if (!stalled.peek().getAsBoolean()) return;
+            stalled.poll();
+        }
+        pauseNIO(false);
+    }
+
+    private void pauseNIO(boolean paused) {
+        if (acceptKey.isValid()) acceptKey.interestOps(paused ? 0 : SelectionKey.OP_ACCEPT);
+        if (udpKey.isValid()) udpKey.interestOps(paused ? 0 : SelectionKey.OP_READ);
+    }
+
+    private void refuseNIO(NIOConnection conn) {
+        if (admission.replyBusy) {
+            completeNIO(conn, "BUSY");
+        } else {
+            closeNIO(conn);
+        }
+    }
+
+    private void completeNIO(NIOConnection conn, String response) {
+        conn.busy = false;
+        conn.lastActivity = System.currentTimeMillis();
+        if (!conn.key.isValid()) return;
+        if (response == null) {
+            // QUIT vs. için cevap yok
+            closeNIO(conn);
+            return;
+        }
+        appendLine(conn, response);
+        try {
+            writeNIO(conn);
+        } catch (IOException e) {
+            closeNIO(conn);
+        }
+    }
+
+    // Cevabı ara String/byte[] oluşturmadan bağlantının yazma buffer'ına ekler
+    private static void appendLine(NIOConnection conn, String response) {
+        ByteBuffer buf = conn.writeBuffer;
+        if (buf.remaining() < response.length() + 1) {
+            buf = grow(buf, response.length() + 1);
+            conn.writeBuffer = buf;
+        }
+        int encoded = Tokens.encodeLine(response, buf.array(), buf.position());
+        if (encoded >= 0) {
+            buf.position(buf.position() + encoded);
+            return;
+        }
+        // ASCII dışı karakter: UTF-8'e düş
+        byte[] bytes = (response + "\n").getBytes(StandardCharsets.UTF_8);
+        if (buf.remaining() < bytes.length) {
+            buf = grow(buf, bytes.length);
+            conn.writeBuffer = buf;
+        }
+        buf.put(bytes);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buf, int needed) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + needed));
+        buf.flip();
+        bigger.put(buf);
+        return bigger;
+    }
+
+    private void writeNIO(NIOConnection conn) throws IOException {
+        ByteBuffer buf = conn.writeBuffer;
+        buf.flip();
+        try {
+            conn.channel.write(buf);
+        } finally {
+            buf.compact();
+        }
+        if (buf.position() > 0) {
+            conn.key.interestOps(conn.key.interestOps() | SelectionKey.OP_WRITE);
+            return;
+        }
+        conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_WRITE);
+        dispatchNIO(conn);
+    }
+
+    // İşlenen isteği ya da yazılacak cevabı olmayan, clientIdleMillis'i aşmış bağlantıları kapatır
+    private void closeIdleNIO(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (!(key.attachment() instanceof NIOConnection)) continue;
+            NIOConnection conn = (NIOConnection) key.attachment();
+            if (!conn.busy && conn.writeBuffer.position() == 0 && now - conn.lastActivity > clientIdleMillis) {
+                closeNIO(conn);
+            }
+        }
+    }
+
+    private void closeNIO(NIOConnection conn) {
+        if (conn.channel.isOpen()) metrics.activeConnections.decrementAndGet();
+        conn.key.cancel();
+        try {
+            conn.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void receiveNIO(DatagramChannel udpChannel, ByteBuffer buffer) throws IOException {
+        SocketAddress client;
+        while (true) {
+            buffer.clear();
+            client = udpChannel.receive(buffer);
+            if (client == null) return;
+            buffer.flip();
+            final SocketAddress clientAddress = client;
+            // Alım buffer'ı paylaşılıyor: isteğin byte'larını kopyala, String'e çevirme
+            byte[] data = Arrays.copyOf(buffer.array(), buffer.limit());
+            final ByteSequence request = new ByteSequence(data, 0, data.length);
+            if (Log.debugEnabled()) Log.debug("UDP request from {} => \"{}\"", clientAddress, request.toString().trim());
+            Runnable refuse = () -> {
+                if (!admission.replyBusy) return;
+                try {
+                    sendDatagram(udpChannel, data, busyReply(request), clientAddress);
+                } catch (IOException e) {
+                    Log.warn("UDP response error: {}", e.getMessage());
+                }
+            };
+            submitNIO(() -> {
+                try {
+                    String response = processDatagram(request);
+                    if (response == null) return;
+                    sendDatagram(udpChannel, data, response, clientAddress);
+                    Log.debug("UDP response sent to {} => \"{}\"", clientAddress, response);
+                } catch (IOException e) {
+                    Log.warn("UDP response error: {}", e.getMessage());
+                } catch (Exception e) {
+                    Log.error("UDP processing error: {}", e.getMessage());
+                }
+            }, refuse, refuse);
+            // block: kuyruk doldu, kalan datagramlar kernel buffer'ında beklesin
+            if (!stalled.isEmpty()) return;
+        }
+    }
+
+    // Cevap sığıyorsa isteğin kendi dizisine yazılır
+    private static void sendDatagram(DatagramChannel udpChannel, byte[] data, String response, SocketAddress clientAddress) throws IOException {
+        int encoded = Tokens.encodeLine(response, data, 0);
+        ByteBuffer reply = encoded > 0
+                ? ByteBuffer.wrap(data, 0, encoded - 1)
+                : ByteBuffer.wrap(datagramReply(response));
+        udpChannel.send(reply, clientAddress);
+    }
+
+    // Bir datagram'a sığmayan cevap (çok key'li MGET, GET NAMES) gönderilemez: NA döner
+    private static byte[] datagramReply(String response) {
+        byte[] data = response.getBytes(StandardCharsets.UTF_8);
+        if (data.length <= MAX_DATAGRAM) return data;
+        Log.warn("Response too large for a datagram ({} bytes), use TCP", data.length);
+        return "NA".getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------
+    // KOMUT ISLEME KISMI
+    // ---------------------------------------------------
+    String processCommand(CharSequence request) {
+        if (request == null) {
+            return "NA";
+        }
+        long started = System.nanoTime();
+        String response = executeCommand(request);
+        metrics.record(Metrics.commandOf(request), System.nanoTime() - started, response);
+        return response;
+    }
+
+    /**
+     * Komutu split/regex kullanmadan, indekslerle ayrıştırır (bkz. Tokens). Bilinen key'ler
+     * keyNames havuzundan geldiği için GET VALUE / SET yeni String oluşturmaz.
+     */
+    private String executeCommand(CharSequence request) {
+        int end = request.length();
+        int from = Tokens.skipSpaces(request, 0);
+        if (from == end) {
+            return "NA";
+        }
+        int to = Tokens.tokenEnd(request, from);
+
+        if (Tokens.is(request, from, to, "GET")) {
+            int typeFrom = Tokens.skipSpaces(request, to);
+            if (typeFrom == end) {
+                return "NA";
+            }
+            int typeTo = Tokens.tokenEnd(request, typeFrom);
+            if (Tokens.is(request, typeFrom, typeTo, "NAMES")) {
+                return handleGetNames();
+            } else if (Tokens.is(request, typeFrom, typeTo, "VALUE")) {
+                int keyFrom = Tokens.skipSpaces(request, typeTo);
+                if (keyFrom == end) {
+                    return "NA";
+                }
+                return handleGetValue(keyNames.lookup(request, keyFrom, Tokens.tokenEnd(request, keyFrom)));
+            }
+            return "NA";
+        }
+
+        if (Tokens.is(request, from, to, "SET")) {
+            int keyFrom = Tokens.skipSpaces(request, to);
+            int keyTo = Tokens.tokenEnd(request, keyFrom);
+            int valueFrom = Tokens.skipSpaces(request, keyTo);
+            if (valueFrom == end) {
+                return "NA";
+            }
+            long value = Tokens.parseInt(request, valueFrom, Tokens.tokenEnd(request, valueFrom));
+            if (value == Long.MIN_VALUE) {
+                return "NA";
+            }
+            return handleSet(keyNames.lookup(request, keyFrom, keyTo), (int) value);
+        }
+
+        if (Tokens.is(request, from, to, "PROXYNAMES")) {
+            int sessionFrom = Tokens.skipSpaces(request, to);
+            if (sessionFrom == end) {
+                return "NA";
+            }
+            int sessionTo = Tokens.tokenEnd(request, sessionFrom);
+            // Opsiyonel üçüncü parametre: çağıran proxy'nin bize bıraktığı süre (ms)
+            long budget = discoveryTimeoutMillis;
+            int budgetFrom = Tokens.skipSpaces(request, sessionTo);
+            if (budgetFrom < end) {
+                long requested = Tokens.parseInt(request, budgetFrom, Tokens.tokenEnd(request, budgetFrom));
+                if (requested == Long.MIN_VALUE) {
+                    return "NA";
+                }
+                budget = Math.min(budget, requested);
+            }
+            return handleProxyNames(request.subSequence(sessionFrom, sessionTo).toString(), budget);
+        }
+
+        if (Tokens.is(request, from, to, "REFRESH")) {
+            // Cache'i atlayıp tüm ağı hemen yeniden tara
+            return refreshRoutes();
+        }
+
+        if (Tokens.is(request, from, to, "STATS")) {
+            return handleStats();
+        }
+
+        if (Tokens.is(request, from, to, "PING")) {
+            return "OK";
+        }
+
+        if (Tokens.is(request, from, to, "MGET")) {
+            List<String> getKeys = new ArrayList<>();
+            for (int i = Tokens.skipSpaces(request, to); i < end; i = Tokens.skipSpaces(request, i)) {
+                int keyTo = Tokens.tokenEnd(request, i);
+                getKeys.add(keyNames.lookup(request, i, keyTo));
+                i = keyTo;
+            }
+            if (getKeys.isEmpty()) {
+                return "NA";
+            }
+            return handleMultiGet(getKeys);
+        }
+
+        if (Tokens.is(request, from, to, "MSET")) {
+            int args = Tokens.countTokens(request, to);
+            if (args < 2 || args % 2 != 0) {
+                return "NA";
+            }
+            List<String> setKeys = new ArrayList<>(args / 2);
+            int[] setValues = new int[args / 2];
+            for (int i = Tokens.skipSpaces(request, to); i < end; i = Tokens.skipSpaces(request, i)) {
+                int keyTo = Tokens.tokenEnd(request, i);
+                int valueFrom = Tokens.skipSpaces(request, keyTo);
+                int valueTo = Tokens.tokenEnd(request, valueFrom);
+                long value = Tokens.parseInt(request, valueFrom, valueTo);
+                if (value == Long.MIN_VALUE) {
+                    return "NA";
+                }
+                setValues[setKeys.size()] = (int) value;
+                setKeys.add(keyNames.lookup(request, i, keyTo));
+                i = valueTo;
+            }
+            return handleMultiSet(setKeys, setValues);
+        }
+
+        if (Tokens.is(request, from, to, "QUIT")) {
+            handleQuit();
+            return null;
+        }
+
+        return "NA";
+    }
+
+    // ---------------------------------------------------
+    // GET NAMES / PROXYNAMES → Çok seviyeli discovery
+    // ---------------------------------------------------
+    // Normal client'tan gelen GET NAMES: TTL dolmadıysa bellekteki routing tablosundan cevap ver
+    private String handleGetNames() {
+        String names = cachedNames;
+        if (names == null || routesStale || System.currentTimeMillis() - routesRefreshedAt > routeTtlMillis) {
+            names = refreshRoutes();
+        }
+        return names;
+    }
+
+    /**
+     * Yeni bir discovery session'ı ile tüm ağı tarar ve routing tablosunu günceller.
+     * Cevap veren node'ların artık bildirmediği key'lerin route'ları silinir; cevap vermeyen
+     * node'ların route'ları bir sonraki taramaya kadar korunur.
+     */
+    private String refreshRoutes() {
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        while (!inflightRefresh.compareAndSet(null, mine)) {
+            // Zaten süren bir tarama var: yenisini başlatmak yerine onun sonucunu bekle
+            CompletableFuture<String> running = inflightRefresh.get();
+            if (running != null) {
+                try {
+                    return running.join();
+                } catch (CompletionException e) {
+                    return "OK 0";
+                }
+            }
+        }
+        try {
+            String names = doRefreshRoutes();
+            mine.complete(names);
+            return names;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflightRefresh.compareAndSet(mine, null);
+        }
+    }
+
+    private String doRefreshRoutes() {
+        Map<ServerInfo, Set<String>> answered = new HashMap<>();
+        long startedAt = System.currentTimeMillis();
+        Map<String, Integer> keys = discoverKeys(UUID.randomUUID().toString(), discoveryTimeoutMillis, answered);
+        if (keys == null) {
+            return "OK 0";
+        }
+
+        for (Map.Entry<ServerInfo, Set<String>> entry : answered.entrySet()) {
+            entry.getKey().keys.retainAll(entry.getValue());
+        }
+        keyToServer.entrySet().removeIf(route -> {
+            Set<String> reported = answered.get(route.getValue());
+            return reported != null && !reported.contains(route.getKey());
+        });
+        keyRoutes.entrySet().removeIf(routes -> {
+            routes.getValue().keySet().removeIf(server -> {
+                Set<String> reported = answered.get(server);
+                return reported != null && !reported.contains(routes.getKey());
+            });
+            return routes.getValue().isEmpty();
+        });
+        allKeys.retainAll(keyToServer.keySet());
+
+        String names = namesReply(keys.keySet());
+        cachedNames = names;
+        routesRefreshedAt = startedAt;
+        routesStale = false;
+        return names;
+    }
+
+    // Upstream'de bir değişiklik sezildi: cache'i geçersiz say ve arka planda tazele
+    private void markRoutesStale() {
+        // Sürekli NA dönen bir key tarama fırtınasına yol açmasın. routesStale da yalnızca tarama
+        // gerçekten planlandığında işaretlenir; yoksa her GET NAMES kendi taramasını başlatırdı
+        if (System.currentTimeMillis() - routesRefreshedAt < MIN_REFRESH_INTERVAL_MILLIS) {
+            return;
+        }
+        if (refreshQueued.compareAndSet(false, true)) {
+            routesStale = true;
+            try {
+                upstreamCalls.execute(this::refreshRoutesQuietly);
+            } catch (RejectedExecutionException e) {
+                routesStale = false;
+                refreshQueued.set(false);
+            }
+        }
+    }
+
+    private void refreshRoutesQuietly() {
+        refreshQueued.set(false);
+        try {
+            refreshRoutes();
+        } catch (Exception e) {
+            Log.warn("Route refresh error: {}", e.getMessage());
+        }
+    }
+
+    // Başka bir proxy'den gelen PROXYNAMES <sessionId>
+    private String handleProxyNames(String sessionId, long budgetMillis) {
+        return gatherKeysForSession(sessionId, budgetMillis);
+    }
+
+    /**
+     * Belirli bir "session" için, bütün aşağıdaki node'lardan key listelerini toplar.
+     * Cycle engellemek için sessionId'yi processedSessions set'inde takip ediyoruz.
+     * Node'lar paralel sorgulanır; cevaplar geldikçe birleştirilir, discoveryTimeoutMillis
+     * dolduğunda o ana kadar gelenlerle dönülür.
+     */
+    private String gatherKeysForSession(String sessionId, long timeoutMillis) {
+        Map<String, Integer> keys = discoverKeys(sessionId, timeoutMillis, null);
+        // Cycle'da da proxy cevabı biçiminde: çağıran bizi düz server sanmasın
+        return proxyNamesReply(keys == null ? Collections.<String, Integer>emptyMap() : keys);
+    }
+
+    /**
+     * Session'da bulunan key'leri ve her birine bu proxy'den en az kaç hop olduğunu döner;
+     * session zaten işleniyorsa (cycle) null. answered verilirse, cevap veren her node'un
+     * bildirdiği key'ler oraya yazılır.
+     */
+    private Map<String, Integer> discoverKeys(String sessionId, long timeoutMillis, Map<ServerInfo, Set<String>> answered) {
+        // Aynı session ikinci kez geliyorsa (cycle) → boş liste
+        if (!processedSessions.add(sessionId)) {
+            return null;
+        }
+
+        Map<String, Integer> sessionKeys = new LinkedHashMap<>();
+        long started = System.nanoTime();
+        CompletionService<Map.Entry<ServerInfo, String>> replies = new ExecutorCompletionService<>(upstreamCalls);
+        List<Future<Map.Entry<ServerInfo, String>>> pending = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (ServerInfo server : servers) {
+                // Devresi açık node'u beklemeye değmez; route'ları bir sonraki taramaya kadar korunur
+                if (server.breaker.isOpen()) continue;
+                pending.add(replies.submit(() ->
+                        new AbstractMap.SimpleImmutableEntry<>(server, sendProxyNamesOrGetNames(server, sessionId, deadline))));
+            }
+
+            for (int received = 0; received < pending.size(); received++) {
+                long remaining = deadline - System.currentTimeMillis();
+                Future<Map.Entry<ServerInfo, String>> done = remaining > 0 ? replies.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                if (done == null) {
+                    Log.warn("Discovery deadline reached, {} node(s) did not answer", pending.size() - received);
+                    break;
+                }
+                try {
+                    Map.Entry<ServerInfo, String> reply = done.get();
+                    Set<String> reported = mergeKeys(reply.getKey(), reply.getValue(), sessionKeys);
+                    if (answered != null && reported != null) {
+                        answered.put(reply.getKey(), reported);
+                    }
+                } catch (ExecutionException e) {
+                    Log.warn("Discovery error: {}", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // interrupt edilmez: paylaşılan upstream DatagramChannel interrupt'ta kapanır. Geç kalan
+            // probe'lar kendi timeout'larıyla (deadline'a göre kısaltılmış) biter, cevapları atılır
+            for (Future<?> f : pending) f.cancel(false);
+            // Session bitti, tekrar gelebilmesi için kaldırıyoruz
+            processedSessions.remove(sessionId);
+            metrics.discovery.record(System.nanoTime() - started);
+        }
+        return sessionKeys;
+    }
+
+    static String namesReply(Collection<String> keys) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("OK ").append(keys.size());
+        for (String key : keys) {
+            sb.append(" ").append(key);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * PROXYNAMES cevabı: "OK <n> <hop>... <key>..." — hop, bu proxy'den key'in bulunduğu
+     * server'a kadar geçilen node sayısı. Hop'lar key'lerden önce ve ayraçsız gelir: konumları
+     * n'den bellidir, böylece hiçbir key adı (örneğin "HOPS") ayraçla karışamaz.
+     */
+    static String proxyNamesReply(Map<String, Integer> keys) {
+        StringBuilder sb = new StringBuilder("OK ").append(keys.size());
+        for (Integer hops : keys.values()) {
+            sb.append(" ").append(hops);
+        }
+        for (String key : keys.keySet()) {
+            sb.append(" ").append(key);
+        }
+        return sb.toString();
+    }
+
+    // "OK <n> <hop>... <key>..." biçiminde: tam 2n token, ilk n'i negatif olmayan sayı.
+    // Düz server'ın GET NAMES cevabında n token olur, bu yüzden onunla karışmaz (n = 0 dışında,
+    // ki o durumda iki biçim aynıdır).
+    static boolean isProxyNamesReply(String response) {
+        if (response == null || !response.startsWith("OK ")) return false;
+        int countFrom = Tokens.skipSpaces(response, 2);
+        int at = Tokens.tokenEnd(response, countFrom);
+        long count = Tokens.parseInt(response, countFrom, at);
+        if (count == Long.MIN_VALUE || count < 0) return false;
+        long tokens = 0;
+        for (at = Tokens.skipSpaces(response, at); at < response.length(); at = Tokens.skipSpaces(response, at)) {
+            int to = Tokens.tokenEnd(response, at);
+            if (tokens < count) {
+                long hops = Tokens.parseInt(response, at, to);
+                if (hops == Long.MIN_VALUE || hops < 0) return false;
+            }
+            tokens++;
+            at = to;
+        }
+        return tokens == 2 * count;
+    }
+
+    /**
+     * Bir node'un GET NAMES ("OK <n> <key>...") ya da PROXYNAMES ("OK <n> <hop>... <key>...")
+     * cevabını routing tablosuna işler, node'un bildirdiği key'leri döner. Düz server'ın (ya da hop
+     * göndermeyen eski proxy'nin) key'leri 1 hop uzakta sayılır. Session içinde key'e en az hop'la ulaşan node, eşitlikte srtt'si düşük
+     * olan birincil route olur.
+     */
+    Set<String> mergeKeys(ServerInfo server, String response, Map<String, Integer> sessionKeys) {
+        if (response == null || !response.startsWith("OK")) {
+            return null;
+        }
+
+        int end = response.length();
+        int countFrom = Tokens.skipSpaces(response, Tokens.tokenEnd(response, 0));
+        int at = Tokens.tokenEnd(response, countFrom);
+        long parsedCount = Tokens.parseInt(response, countFrom, at);
+        if (parsedCount == Long.MIN_VALUE || parsedCount < 0) {
+            return null;
+        }
+
+        int[] hopCounts = null;
+        if (parsedCount > 0 && isProxyNamesReply(response)) {
+            hopCounts = new int[(int) parsedCount];
+            for (int i = 0; i < hopCounts.length; i++) {
+                int hopFrom = Tokens.skipSpaces(response, at);
+                at = Tokens.tokenEnd(response, hopFrom);
+                hopCounts[i] = (int) Tokens.parseInt(response, hopFrom, at) + 1;
+            }
+        }
+
+        // Key'ler havuzdaki kanonik String'lerle saklanır; istekler aynı örneği bulur
+        List<String> keys = new ArrayList<>((int) Math.min(parsedCount, 1 << 16));
+        for (at = Tokens.skipSpaces(response, at); keys.size() < parsedCount && at < end; at = Tokens.skipSpaces(response, at)) {
+            int keyTo = Tokens.tokenEnd(response, at);
+            keys.add(keyNames.add(response, at, keyTo));
+            at = keyTo;
+        }
+
+        Set<String> reported = new HashSet<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            int hops = hopCounts != null ? hopCounts[i] : 1;
+            reported.add(key);
+            allKeys.add(key);
+            server.keys.add(key);
+            keyRoutes.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(server, hops);
+            Integer best = sessionKeys.get(key);
+            if (best == null || hops < best || (hops == best && fasterThan(server, keyToServer.get(key)))) {
+                sessionKeys.put(key, hops);
+                keyToServer.put(key, server);
+            }
+        }
+        return reported;
+    }
+
+    // srtt'si bilinmeyen node en yavaş sayılır
+    private static boolean fasterThan(ServerInfo a, ServerInfo b) {
+        if (b == null) return true;
+        double ra = a.rtt.smoothed();
+        double rb = b.rtt.smoothed();
+        return ra >= 0 && (rb < 0 || ra < rb);
+    }
+
+    /**
+     * Key'in exclude dışındaki, devresi açık olmayan en iyi route'u: önce en az hop,
+     * eşitlikte en düşük srtt.
+     */
+    private ServerInfo bestRoute(String keyName, ServerInfo exclude) {
+        Map<ServerInfo, Integer> routes = keyRoutes.get(keyName);
+        if (routes == null) {
+            return null;
+        }
+        ServerInfo best = null;
+        int bestHops = Integer.MAX_VALUE;
+        for (Map.Entry<ServerInfo, Integer> route : routes.entrySet()) {
+            ServerInfo server = route.getKey();
+            if (server == exclude || server.breaker.isOpen()) continue;
+            int hops = route.getValue();
+            if (hops < bestHops || (hops == bestHops && fasterThan(server, best))) {
+                best = server;
+                bestHops = hops;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Önce node'u proxy gibi kullanmayı dener:
+     *  PROXYNAMES <sessionId>
+     * Eğer "NA" dönerse düz server kabul edip GET NAMES atar.
+     */
+    private String sendProxyNamesOrGetNames(ServerInfo server, String sessionId, long deadline) {
+        // Önce PROXYNAMES deneyelim (sadece proxy'ler anlayacak). Alt proxy kendi fan-out'unu
+        // bizim deadline'ımızdan önce bitirsin diye kalan süreyi de gönderiyoruz.
+        long budget = Math.max(0, deadline - System.currentTimeMillis() - DISCOVERY_HOP_MARGIN_MILLIS);
+        int timeout = (int) Math.max(UPSTREAM_TIMEOUT_MILLIS, budget + DISCOVERY_HOP_MARGIN_MILLIS);
+        String response = sendCommand(server, "PROXYNAMES " + sessionId + " " + budget, timeout);
+        // Node'u proxy saymak için cevap gerçekten bir PROXYNAMES cevabı olmalı; rastgele bir
+        // "OK ..." düz server'ı proxy sanıp ona anlamayacağı etiketli istekler göndertir
+        if (!isProxyNamesReply(response)) {
+            // Bu node muhtemelen sadece basit server, o zaman normal protokole düş:
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            response = sendCommand(server, "GET NAMES", (int) Math.min(timeoutFor(server, "GET NAMES"), remaining));
+            server.isProxy = false;
+        } else {
+            server.isProxy = true;
+        }
+        return response;
+    }
+
+    // ---------------------------------------------------
+    // GET VALUE / SET → Dinamik routing
+    // ---------------------------------------------------
+    /**
+     * Key'in sahibi olan node; bilinmiyorsa tüm ağı yeniden tarar. Tarama sonrası da
+     * bulunamayan key negatif cache'e yazılır ve TTL boyunca yeniden tarama yapılmaz.
+     * -shard'da sahip ring'den hesaplanır, tarama yapılmaz.
+     */
+    ServerInfo routeFor(String keyName) {
+        if (ring != null) {
+            return ring.owner(keyName);
+        }
+        ServerInfo server = keyToServer.get(keyName);
+        if (server != null) {
+            // Birincil route'un devresi açıksa, bir sonraki taramayı beklemeden alternatife geç
+            if (server.breaker.isOpen()) {
+                ServerInfo alternate = bestRoute(keyName, server);
+                if (alternate != null) return alternate;
+            }
+            return server;
+        }
+        if (missingKeys.contains(keyName)) {
+            return null;
+        }
+        refreshRoutes();
+        server = keyToServer.get(keyName);
+        if (server == null) {
+            missingKeys.add(keyName);
+        }
+        return server;
+    }
+
+    private String handleGetValue(String keyName) {
+        // Bu key'i daha önce görmediysek, tüm ağı yeniden tarayalım
+        ServerInfo server = routeFor(keyName);
+        if (server == null) {
+            return "NA";
+        }
+        // -ackmode immediate: onaylanmış ama henüz upstream'e yazılmamış değer
+        if (coalescer != null && immediateAck) {
+            Integer unwritten = coalescer.pendingValue(keyName);
+            if (unwritten != null) {
+                return "OK " + unwritten;
+            }
+        }
+        long fillToken = 0;
+        if (values.isEnabled()) {
+            Integer cached = values.get(keyName);
+            if (cached != null) {
+                return "OK " + cached;
+            }
+            fillToken = values.fillToken(keyName);
+        }
+        String response;
+        if (replicas > 1) {
+            response = readReplicas(keyName);
+        } else {
+            // -shard'da alternatif route'lar key'in eski kopyalarıdır, hedge yapılmaz
+            response = hedging && ring == null ? hedgedGet(server, keyName) : sendCommand(server, "GET VALUE " + keyName);
+        }
+        if (ring != null && "NA".equals(response)) {
+            response = readPrevious(keyName, server, response);
+        } else if (response == null || response.equals("NA")) {
+            // Node ulaşılamıyor ya da key'i artık tanımıyor: routing tablosu eskimiş olabilir
+            markRoutesStale();
+        }
+        if (values.isEnabled() && response != null && response.startsWith("OK ")) {
+            try {
+                values.fill(keyName, Integer.parseInt(response.substring(3).trim()), fillToken);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        // sendCommand null döndürürse (sunucuya ulaşılamazsa), NA döndür
+        return response != null ? response : "NA";
+    }
+
+    /**
+     * GET VALUE'yu birincil route'a gönderir; p95 süresi içinde cevap gelmezse (ya da node
+     * hiç cevap veremezse ya da NA derse) aynı isteği en iyi alternatif route'a (bkz. bestRoute) da
+     * gönderir ve önce gelen değeri kullanır. Geç kalan istek iptal edilmez, cevabı atılır.
+     */
+    private String hedgedGet(ServerInfo primary, String keyName) {
+        String command = "GET VALUE " + keyName;
+        ServerInfo alternate = bestRoute(keyName, primary);
+        double p95 = primary.rtt.percentile(0.95, MIN_HEDGE_SAMPLES);
+        if (alternate == null || p95 < 0) {
+            return sendCommand(primary, command);
+        }
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> sendCommand(primary, command), upstreamCalls);
+        try {
+            String response = first.get((long) Math.ceil(p95 * 1000), TimeUnit.MICROSECONDS);
+            // NA da cevap sayılmaz: birincil route key'i artık tanımıyor olabilir, alternatif hemen sorulur
+            if (isValue(response)) {
+                return response;
+            }
+        } catch (TimeoutException e) {
+            // Birincil route bu isteğin p95'ini aştı
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        hedgesSent.incrementAndGet();
+        CompletableFuture<String> hedge = CompletableFuture.supplyAsync(() -> sendCommand(alternate, command), upstreamCalls);
+        try {
+            // Yalnızca değer ("OK <n>") kazanır; null ya da NA gelirse diğer isteği beklemeye devam et
+            CompletableFuture<String> winner = new CompletableFuture<>();
+            first.thenAccept(r -> { if (isValue(r)) winner.complete(r); });
+            hedge.thenAccept(r -> { if (isValue(r) && winner.complete(r)) hedgesWon.incrementAndGet(); });
+            // İkisi de değer vermediyse varsa NA (istemciye ve route tazelemeye), yoksa null
+            CompletableFuture.allOf(first, hedge).thenRun(() ->
+                    winner.complete(first.join() != null ? first.join() : hedge.join()));
+            return winner.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Hedge'te yalnızca değer taşıyan cevap kazanır
+    private static boolean isValue(String response) {
+        return response != null && response.startsWith("OK ");
+    }
+
+    private String handleSet(String keyName, int value) {
+        // Key yeni bir yerde olabilir, keşfi tazele
+        ServerInfo server = routeFor(keyName);
+        if (server == null) {
+            return "NA";
+        }
+        return coalescer != null ? coalescedSet(keyName, value) : forwardSet(server, keyName, value);
+    }
+
+    private String forwardSet(ServerInfo server, String keyName, int value) {
+        // Write-through: SET sürerken cache'teki eski değer okunmasın
+        long writeToken = values.isEnabled() ? values.invalidate(keyName) : 0;
+        String response = replicas > 1 ? replicatedSet(keyName, value) : sendCommand(server, "SET " + keyName + " " + value);
+        if (ring != null && replicas == 1 && "NA".equals(response)) response = writePrevious(keyName, server, value, response);
+        if (ring == null && (response == null || response.equals("NA"))) markRoutesStale();
+        if (values.isEnabled() && "OK".equals(response)) values.put(keyName, value, writeToken);
+        // sendCommand null döndürürse (sunucuya ulaşılamazsa), NA döndür
+        return response != null ? response : "NA";
+    }
+
+    // -ackmode immediate'te SET birleştirilince onaylanır; flushed'da birleştiği yazımın cevabı döner
+    private String coalescedSet(String keyName, int value) {
+        CompletableFuture<String> written = coalescer.submit(keyName, value);
+        return immediateAck ? "OK" : awaitCoalesced(written);
+    }
+
+    private static String awaitCoalesced(CompletableFuture<String> written) {
+        try {
+            String response = written.get();
+            return response != null ? response : "NA";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "NA";
+        } catch (ExecutionException e) {
+            return "NA";
+        }
+    }
+
+    // Pencere kapanınca WriteCoalescer'ın yaptığı upstream yazımı
+    private String writeCoalesced(String keyName, int value) {
+        ServerInfo server = routeFor(keyName);
+        String response = server == null ? null : forwardSet(server, keyName, value);
+        if (immediateAck && !"OK".equals(response)) {
+            // İstemciye OK denmişti: değer kayboldu
+            Log.warn("Acknowledged SET {} {} was not written upstream: {}", keyName, value, response);
+        }
         return response;
     }
 
-    private String sendTCPCommand(ServerInfo server, String command) {
-        try {
-            Socket socket = new Socket();
-            socket.connect(new InetSocketAddress(server.address, server.port), 2000);
-            socket.setSoTimeout(2000);
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            out.println(command);
-            if (command.startsWith("QUIT")) {
-                socket.close();
-                return null;
-            }
-            String response = in.readLine();
-
-            in.close();
-            out.close();
-            socket.close();
-            return response;
+    /**
+     * -shard: sahibinde olmayan key, discovery'nin bildiği başka bir node'da olabilir (ring'e
+     * node eklendi ya da key -shard'dan önce oraya konmuştu). Oradan okunur; sahibine kopyalanmaz,
+     * çünkü arada sahibine yazılan bir SET'in üzerine yazılabilirdi. Key sahibine ilk SET'te taşınır.
+     */
+    private String readPrevious(String keyName, ServerInfo owner, String ownerResponse) {
+        ServerInfo previous = keyToServer.get(keyName);
+        if (previous == null || previous == owner) {
+            return ownerResponse;
         }
-        catch (IOException e){System.err.println("TCP error with " + server + ": " + e.getMessage());return null;}
+        String response = sendCommand(previous, "GET VALUE " + keyName);
+        return response != null && response.startsWith("OK ") ? response : ownerResponse;
     }
 
-    private String sendUDPCommand(ServerInfo server, String command) {
-        try {
-            DatagramSocket socket = new DatagramSocket();
-            socket.setSoTimeout(2000);
-
-            byte[] buffer = (command + "\n").getBytes(StandardCharsets.UTF_8);
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length,
-                    InetAddress.getByName(server.address), server.port);
-            socket.send(packet);
-
-            if (command.startsWith("QUIT"))
-            {
-                socket.close();
-                return null;
+    /**
+     * -shard: sahibi key'i kabul etmediyse (-create olmadan çalışıyor) SET key'i bilen node'a
+     * yazılır; readPrevious de oradan okur. Key hiçbir yerde yoksa SET'in gidebileceği yer yoktur:
+     * sahibi olan node için bir kez yüksek sesle uyarılır, key başına sessiz NA yerine.
+     */
+    private String writePrevious(String keyName, ServerInfo owner, int value, String ownerResponse) {
+        ServerInfo previous = keyToServer.get(keyName);
+        if (previous == null || previous == owner) {
+            if (rejectingCreate.add(owner)) {
+                Log.error("{} refused to create {}; -shard needs every server to run with -create", owner, keyName);
             }
-
-            buffer = new byte[1024];
-            packet = new DatagramPacket(buffer, buffer.length);
-            socket.receive(packet);
-            String response = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8).trim();
-
-            socket.close();
-            return response;
-        } catch (IOException e) {
-            System.err.println("UDP error with " + server + ": " + e.getMessage());
-            return null;
+            return ownerResponse;
         }
+        String response = sendCommand(previous, "SET " + keyName + " " + value);
+        return "OK".equals(response) ? response : ownerResponse;
     }
 
     // ---------------------------------------------------
-    // DINLEYICILER (TCP / UDP)
+    // -replicas → Quorum okuma / yazma
     // ---------------------------------------------------
+    /**
+     * readQuorum 1 ise okumalar replikalar arasında sırayla dağıtılır; NA ya da cevap yoksa
+     * sıradaki replikaya geçilir. Daha büyük readQuorum'da bütün replikalar paralel sorulur ve
+     * readQuorum cevap gelince karar verilir (bkz. resolve). Geç kalanlar da gelince bütün cevaplarla
+     * yeniden karar verilir ve farklı cevap veren replikalar arka planda düzeltilir (read repair).
+     */
+    private String readReplicas(String keyName) {
+        ServerInfo[] owners = ring.replicas(keyName, replicas);
+        String command = "GET VALUE " + keyName;
+        if (readQuorum == 1) {
+            int start = (replicaRound.getAndIncrement() & Integer.MAX_VALUE) % owners.length;
+            String response = null;
+            for (int n = 0; n < owners.length; n++) {
+                ServerInfo replica = owners[(start + n) % owners.length];
+                if (replica.breaker.isOpen()) continue;
+                String reply = sendCommand(replica, command);
+                if (reply != null && reply.startsWith("OK ")) return reply;
+                if (reply != null) response = reply;
+            }
+            return response;
+        }
 
-    private void startTCPListener() {
+        long stamp = writeStamps.get(stripe(keyName));
+        List<CompletableFuture<String>> replies = new ArrayList<>(owners.length);
+        CountDownLatch quorum = new CountDownLatch(readQuorum);
+        for (ServerInfo replica : owners) {
+            CompletableFuture<String> reply = CompletableFuture.supplyAsync(() -> sendCommand(replica, command), upstreamCalls);
+            // null: replika cevap vermedi, quorum'a sayılmaz
+            reply.thenAccept(r -> { if (r != null) quorum.countDown(); });
+            replies.add(reply);
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0]));
+        // Quorum'a yetecek kadar replika cevap vermediyse beklemeyi bırak
+        all.thenRun(() -> { while (quorum.getCount() > 0) quorum.countDown(); });
         try {
-            ServerSocket serverSocket = new ServerSocket(port);
-            System.out.println("TCP listener started on port " + port);
+            quorum.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        String[] answers = new String[owners.length];
+        int answered = 0;
+        for (int i = 0; i < owners.length; i++) {
+            answers[i] = replies.get(i).getNow(null);
+            if (answers[i] != null) answered++;
+        }
+        if (answered < readQuorum) {
+            return null;
+        }
+        all.thenRunAsync(() -> repair(keyName, owners, replies, stamp), upstreamCalls);
+        return resolve(answers);
+    }
 
-            while (running) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    new Thread(() -> handleTCPClient(clientSocket)).start();
-                }
-                catch (IOException e) {
-                    if (running) {
-                        System.err.println("TCP accept error: " + e.getMessage());
-                    }
-                }
+    /**
+     * Protokolde sürüm yok; en çok replikanın verdiği değer seçilir, eşitlikte tercih sırasında
+     * önce gelen. Protokolde silme de olmadığından key'i bilen replika bilmeyenden (NA) yenidir:
+     * NA ancak hiçbir replika değer vermediyse seçilir.
+     */
+    static String resolve(String[] answers) {
+        String best = null;
+        int bestVotes = 0;
+        for (String answer : answers) {
+            if (answer == null || !answer.startsWith("OK ")) continue;
+            int votes = 0;
+            for (String other : answers) {
+                if (answer.equals(other)) votes++;
+            }
+            if (votes > bestVotes) {
+                best = answer;
+                bestVotes = votes;
             }
-            serverSocket.close();
         }
-        catch (IOException e) {System.err.println("TCP listener error: " + e.getMessage());}
+        if (best != null) return best;
+        for (String answer : answers) {
+            if (answer != null) return answer;
+        }
+        return null;
     }
-    //=====================================================================================================
-    private void handleTCPClient(Socket clientSocket) {
-        try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-            String request = in.readLine();
-            String response = processCommand(request);
-
-            // QUIT durumunda response null olabilir
-            if (response != null) out.println(response);
 
-            in.close();
-            out.close();
-            clientSocket.close();
-        } catch (IOException e) {System.err.println("TCP client handler error: " + e.getMessage());}
+    // answers.length / 2'den fazla replikanın verdiği "OK <değer>"; yoksa null
+    static String majority(String[] answers) {
+        for (String answer : answers) {
+            if (answer == null || !answer.startsWith("OK ")) continue;
+            int votes = 0;
+            for (String other : answers) {
+                if (answer.equals(other)) votes++;
+            }
+            if (votes * 2 > answers.length) return answer;
+        }
+        return null;
     }
-    //=====================================================================================================
-    private void startUDPListener() {
-        try {
-            DatagramSocket socket = new DatagramSocket(port);
-            System.out.println("UDP listener started on port " + port);
 
-            while (running) {
-
-                try {
+    /**
+     * Yalnızca bütün replikaların çoğunluğunun (cevap verenlerin değil) verdiği değer yayılır;
+     * eşitlikte ya da çoğunluk yoksa hangi değerin yeni olduğu bilinemez, dokunulmaz.
+     * Okumadan beri bu proxy'den key'e SET geçtiyse de yazmaz: okunan eski değer yenisinin
+     * üzerine yazılmasın. Başka proxy'lerden geçen SET'ler görülmez (bkz. Documentation.md).
+     */
+    private void repair(String keyName, ServerInfo[] owners, List<CompletableFuture<String>> replies, long stamp) {
+        String[] answers = new String[owners.length];
+        for (int i = 0; i < owners.length; i++) answers[i] = replies.get(i).getNow(null);
+        String chosen = majority(answers);
+        if (chosen == null) return;
+        String command = "SET " + keyName + " " + chosen.substring(3).trim();
+        for (int i = 0; i < owners.length; i++) {
+            String answer = answers[i];
+            // Cevap vermeyen replika için hint zaten SET tarafında tutulur
+            if (answer == null || answer.equals(chosen)) continue;
+            if (writeStamps.get(stripe(keyName)) != stamp) return;
+            if ("OK".equals(sendCommand(owners[i], command))) {
+                readRepairs.incrementAndGet();
+                Log.debug("Repaired {} on {}", keyName, owners[i]);
+            }
+        }
+    }
 
-                    byte[] buffer = new byte[1024];
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
+    /**
+     * SET bütün replikalara paralel gönderilir, writeQuorum onay gelince OK döner; kalan
+     * replikalar arka planda tamamlanır. Cevap vermeyen replikaya giden değer hint olarak
+     * saklanır ve node health check'e tekrar cevap verince gönderilir (bkz. replayHints).
+     */
+    private String replicatedSet(String keyName, int value) {
+        ServerInfo[] owners = ring.replicas(keyName, replicas);
+        writeStamps.incrementAndGet(stripe(keyName));
+        String command = "SET " + keyName + " " + value;
+        CompletionService<Boolean> acks = new ExecutorCompletionService<>(upstreamCalls);
+        int submitted = 0;
+        for (ServerInfo replica : owners) {
+            try {
+                acks.submit(() -> writeReplica(replica, keyName, value, command));
+                submitted++;
+            } catch (RejectedExecutionException e) {
+                hint(replica, keyName, value);
+            }
+        }
+        int acked = 0;
+        int failed = 0;
+        // Quorum'a ulaşıldı ya da artık ulaşılamaz
+        while (acked < writeQuorum && submitted - failed >= writeQuorum) {
+            try {
+                if (acks.take().get()) acked++;
+                else failed++;
+            } catch (ExecutionException e) {
+                failed++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return acked >= writeQuorum ? "OK" : "NA";
+    }
 
-                    final InetAddress clientAddress = packet.getAddress();
-                    final int clientPort = packet.getPort();
-                    final String request = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8).trim();
+    private boolean writeReplica(ServerInfo replica, String keyName, int value, String command) {
+        String response = sendCommand(replica, command);
+        if ("OK".equals(response)) {
+            replica.hints.remove(keyName);
+            return true;
+        }
+        // NA: replika key'i kabul etmiyor (-create yok), tekrar göndermenin anlamı yok
+        if (response == null) hint(replica, keyName, value);
+        return false;
+    }
 
-                    System.out.println("UDP request from " + clientAddress.getHostAddress() + ":" + clientPort + " => \"" + request + "\"");
+    private static void hint(ServerInfo replica, String keyName, int value) {
+        if (replica.hints.size() < MAX_HINTS_PER_NODE || replica.hints.containsKey(keyName)) {
+            replica.hints.put(keyName, value);
+        }
+    }
 
-                    new Thread(() -> {
-                        try {
-                            String response = processCommand(request);
-                            if (response == null) {
-                                // QUIT vs. için cevap yok
-                                return;
-                            }
+    // Node'a ulaşmamış SET'leri gönderir; ilk cevapsız istekte durur, kalanı bir sonraki health check'e
+    private void replayHints(ServerInfo server) {
+        for (Map.Entry<String, Integer> hint : server.hints.entrySet()) {
+            String response = sendCommand(server, "SET " + hint.getKey() + " " + hint.getValue());
+            if (response == null) return;
+            // Bu arada yeni bir hint geldiyse o kalır
+            server.hints.remove(hint.getKey(), hint.getValue());
+            if ("OK".equals(response)) hintsReplayed.incrementAndGet();
+        }
+    }
 
-                            byte[] responseData = response.getBytes(StandardCharsets.UTF_8);
-                            DatagramPacket responsePacket = new DatagramPacket(responseData, responseData.length, clientAddress, clientPort);
-                            synchronized (socket) {
-                                socket.send(responsePacket);
-                            }
-                            System.out.println("UDP response sent to " + clientAddress.getHostAddress() + ":" + clientPort + " => \"" + response + "\"");
-                        } catch (IOException e) {
-                            System.err.println("UDP response error: " + e.getMessage());
-                        } catch (Exception e) {
-                            System.err.println("UDP processing error: " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    }).start();
-                }
-                catch (IOException e) {
-                    if (running) System.err.println("UDP receive error: " + e.getMessage());
-                }
-            }
-            socket.close();
-        } catch (SocketException e) {System.err.println("UDP listener error: " + e.getMessage());}
+    private int stripe(String keyName) {
+        int h = keyName.hashCode();
+        return (h ^ (h >>> 16)) & (writeStamps.length() - 1);
     }
 
     // ---------------------------------------------------
-    // KOMUT ISLEME KISMI
+    // MGET / MSET → Node bazında gruplanmış toplu istekler
     // ---------------------------------------------------
-    private String processCommand(String request) {
-        if (request == null || request.trim().isEmpty()) {
-            return "NA";
+    // Cevap: "OK <n> <değer|NA> ..." (istek sırasıyla)
+    private String handleMultiGet(List<String> keys) {
+        String[] results = new String[keys.size()];
+        if (replicas > 1) {
+            // Her key'in replika kümesi farklı: key key tek key yolundan
+            for (int i = 0; i < keys.size(); i++) {
+                String response = handleGetValue(keys.get(i));
+                results[i] = response.startsWith("OK ") ? response.substring(3).trim() : "NA";
+            }
+            return batchReply(results);
+        }
+        int[] uncached = new int[keys.size()];
+        int uncachedCount = 0;
+        long[] fillTokens = new long[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            // -ackmode immediate: onaylanmış ama henüz yazılmamış değer upstream'den önce gelir
+            Integer cached = coalescer != null && immediateAck ? coalescer.pendingValue(keys.get(i)) : null;
+            if (cached == null && values.isEnabled()) cached = values.get(keys.get(i));
+            if (cached != null) {
+                results[i] = String.valueOf(cached);
+            } else {
+                if (values.isEnabled()) fillTokens[i] = values.fillToken(keys.get(i));
+                uncached[uncachedCount++] = i;
+            }
         }
 
-        String[] parts = request.trim().split("\\s+");
-        String command = parts[0];
-
-        switch (command) {
-            case "GET":
-                if (parts.length < 2) {
-                    return "NA";
+        Map<ServerInfo, List<Integer>> groups = groupByOwner(keys, uncached, uncachedCount, results);
+        forwardGroups(groups, (server, indexes) -> {
+            StringBuilder batch = new StringBuilder("MGET");
+            List<String> singles = new ArrayList<>();
+            for (int i : indexes) {
+                batch.append(' ').append(keys.get(i));
+                singles.add("GET VALUE " + keys.get(i));
+            }
+            String[] replies = forwardBatch(server, batch.toString(), singles,
+                    reply -> reply != null && reply.startsWith("OK ") ? reply.substring(3).trim() : "NA");
+            for (int j = 0; j < indexes.size(); j++) {
+                int i = indexes.get(j);
+                results[i] = replies[j];
+                if (ring != null && results[i].equals("NA")) {
+                    String previous = readPrevious(keys.get(i), server, "NA");
+                    if (previous.startsWith("OK ")) results[i] = previous.substring(3).trim();
                 }
-                String getType = parts[1];
-                if (getType.equals("NAMES")) {
-                    return handleGetNames();
-                } else if (getType.equals("VALUE")) {
-                    if (parts.length < 3) {
-                        return "NA";
+                if (values.isEnabled() && !results[i].equals("NA")) {
+                    try {
+                        values.fill(keys.get(i), Integer.parseInt(results[i]), fillTokens[i]);
+                    } catch (NumberFormatException ignored) {
                     }
-                    return handleGetValue(parts[2]);
-                }
-                return "NA";
-
-            case "SET":
-                if (parts.length < 3) {
-                    return "NA";
-                }
-                String keyName = parts[1];
-                try {
-                    int value = Integer.parseInt(parts[2]);
-                    return handleSet(keyName, value);
-                } catch (NumberFormatException e) {
-                    return "NA";
-                }
-
-            case "PROXYNAMES":
-                if (parts.length < 2) {
-                    return "NA";
                 }
-                return handleProxyNames(parts[1]);
-
-            case "QUIT":
-                handleQuit();
-                return null;
+            }
+        });
+        return batchReply(results);
+    }
 
-            default:
-                return "NA";
+    // Cevap: "OK <n> <OK|NA> ..." (istek sırasıyla)
+    private String handleMultiSet(List<String> keys, int[] newValues) {
+        String[] results = new String[keys.size()];
+        if (replicas > 1) {
+            for (int i = 0; i < keys.size(); i++) {
+                results[i] = handleSet(keys.get(i), newValues[i]);
+            }
+            return batchReply(results);
+        }
+        if (coalescer != null) {
+            // Key'in penceresi açık olabilir: doğrudan yazım, sonra yazılacak eski değerle ezilirdi
+            List<CompletableFuture<String>> written = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                written.add(routeFor(keys.get(i)) == null ? null : coalescer.submit(keys.get(i), newValues[i]));
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                CompletableFuture<String> w = written.get(i);
+                results[i] = w == null ? "NA" : immediateAck ? "OK" : awaitCoalesced(w);
+            }
+            return batchReply(results);
+        }
+        int[] all = new int[keys.size()];
+        long[] writeTokens = new long[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            all[i] = i;
+            if (values.isEnabled()) writeTokens[i] = values.invalidate(keys.get(i));
         }
+
+        Map<ServerInfo, List<Integer>> groups = groupByOwner(keys, all, all.length, results);
+        forwardGroups(groups, (server, indexes) -> {
+            StringBuilder batch = new StringBuilder("MSET");
+            List<String> singles = new ArrayList<>();
+            for (int i : indexes) {
+                batch.append(' ').append(keys.get(i)).append(' ').append(newValues[i]);
+                singles.add("SET " + keys.get(i) + " " + newValues[i]);
+            }
+            String[] replies = forwardBatch(server, batch.toString(), singles,
+                    reply -> "OK".equals(reply) ? "OK" : "NA");
+            for (int j = 0; j < indexes.size(); j++) {
+                int i = indexes.get(j);
+                results[i] = replies[j];
+                if (ring != null && results[i].equals("NA")) results[i] = writePrevious(keys.get(i), server, newValues[i], "NA");
+                if (values.isEnabled() && results[i].equals("OK")) values.put(keys.get(i), newValues[i], writeTokens[i]);
+            }
+        });
+        return batchReply(results);
     }
 
-    // ---------------------------------------------------
-    // GET NAMES / PROXYNAMES → Çok seviyeli discovery
-    // ---------------------------------------------------
-    // Normal client'tan gelen GET NAMES
-    private String handleGetNames() {
-        // Her GET NAMES çağrısında yeni bir discovery "session"
-        String sessionId = UUID.randomUUID().toString();
-        return gatherKeysForSession(sessionId);
+    /**
+     * Verilen index'lerdeki key'leri sahibi olan node'a göre gruplar. Bilinmeyen key'ler için
+     * key başına değil, toplam bir kez yeniden tarama yapılır; yine bulunamayanlar NA olur.
+     */
+    private Map<ServerInfo, List<Integer>> groupByOwner(List<String> keys, int[] indexes, int count, String[] results) {
+        boolean refreshed = false;
+        Map<ServerInfo, List<Integer>> groups = new LinkedHashMap<>();
+        for (int n = 0; n < count; n++) {
+            int i = indexes[n];
+            String key = keys.get(i);
+            ServerInfo server = ring != null ? ring.owner(key) : keyToServer.get(key);
+            if (server == null && !refreshed && !missingKeys.contains(key)) {
+                refreshRoutes();
+                refreshed = true;
+                server = keyToServer.get(key);
+            }
+            if (server == null) {
+                if (refreshed) missingKeys.add(key);
+                results[i] = "NA";
+                continue;
+            }
+            groups.computeIfAbsent(server, s -> new ArrayList<>()).add(i);
+        }
+        return groups;
     }
 
-    // Başka bir proxy'den gelen PROXYNAMES <sessionId>
-    private String handleProxyNames(String sessionId) {
-        return gatherKeysForSession(sessionId);
+    // Her node grubunu paralel gönderir ve hepsinin bitmesini bekler
+    private void forwardGroups(Map<ServerInfo, List<Integer>> groups, java.util.function.BiConsumer<ServerInfo, List<Integer>> forward) {
+        if (groups.size() == 1) {
+            Map.Entry<ServerInfo, List<Integer>> only = groups.entrySet().iterator().next();
+            forward.accept(only.getKey(), only.getValue());
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        for (Map.Entry<ServerInfo, List<Integer>> group : groups.entrySet()) {
+            futures.add(upstreamCalls.submit(() -> forward.accept(group.getKey(), group.getValue())));
+        }
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                Log.warn("Batch forward error: {}", e.getCause());
+            }
+        }
     }
 
     /**
-     * Belirli bir "session" için, bütün aşağıdaki node'lardan key listelerini toplar.
-     * Cycle engellemek için sessionId'yi processedSessions set'inde takip ediyoruz.
+     * Bir node'a giden grup: proxy ise tek MGET/MSET olarak (proxy zincirinde toplu kalır),
+     * pipelining'i kaldırabildiği bilinen TCP node'a tek bağlantı üzerinden pipelined,
+     * diğerlerine tek tek gönderilir. Dönen dizi singles ile aynı sıradadır.
      */
-    private String gatherKeysForSession(String sessionId) {
-        // Aynı session ikinci kez geliyorsa (cycle) → boş liste
-        if (!processedSessions.add(sessionId)) {
-            return "OK 0";
+    private String[] forwardBatch(ServerInfo server, String batchCommand, List<String> singles,
+                                  java.util.function.Function<String, String> normalize) {
+        if (server.breaker.isOpen()) {
+            String[] unavailable = new String[singles.size()];
+            Arrays.fill(unavailable, "NA");
+            return unavailable;
+        }
+        if (server.isProxy) {
+            String reply = sendCommand(server, batchCommand);
+            String[] parsed = parseBatchReply(reply, singles.size());
+            if (parsed != null) return parsed;
+            // Eski bir proxy MGET/MSET bilmiyor olabilir, tek tek dene
         }
+        List<String> replies = null;
+        if (server.isTCP && server.pool.reuseConfirmed && singles.size() > 1) {
+            replies = sendTCPPipeline(server, singles, (int) timeoutCeilingMillis);
+        }
+        String[] results = new String[singles.size()];
+        for (int j = 0; j < singles.size(); j++) {
+            String reply = replies != null ? replies.get(j) : sendCommand(server, singles.get(j));
+            results[j] = normalize.apply(reply);
+            if (results[j].equals("NA")) markRoutesStale();
+        }
+        return results;
+    }
 
-        Set<String> sessionKeys = new HashSet<>();
+    // "OK <n> r1 ... rn" → [r1..rn]; beklenen sayıda değilse null
+    private static String[] parseBatchReply(String reply, int expected) {
+        if (reply == null || !reply.startsWith("OK ")) return null;
+        int at = Tokens.skipSpaces(reply, 3);
+        int countTo = Tokens.tokenEnd(reply, at);
+        if (Tokens.parseInt(reply, at, countTo) != expected) return null;
+        String[] results = new String[expected];
+        at = countTo;
+        for (int i = 0; i < expected; i++) {
+            int from = Tokens.skipSpaces(reply, at);
+            if (from == reply.length()) return null;
+            at = Tokens.tokenEnd(reply, from);
+            results[i] = reply.substring(from, at);
+        }
+        return Tokens.skipSpaces(reply, at) == reply.length() ? results : null;
+    }
 
-        for (ServerInfo server : servers) {
-            String response = sendProxyNamesOrGetNames(server, sessionId);
-            if (response == null || !response.startsWith("OK")) {
-                continue;
-            }
+    private static String batchReply(String[] results) {
+        StringBuilder sb = new StringBuilder("OK ").append(results.length);
+        for (String r : results) {
+            sb.append(' ').append(r);
+        }
+        return sb.toString();
+    }
 
-            String[] parts = response.split("\\s+");
-            if (parts.length < 2) {
-                continue;
+    // Tüm komutları tek bağlantıya arka arkaya yazar, cevapları sırayla okur; hata olursa null
+    private List<String> sendTCPPipeline(ServerInfo server, List<String> commands, int timeoutMillis) {
+        UpstreamConnection conn = server.pool.borrow();
+        try {
+            if (conn == null) conn = UpstreamConnection.open(server, timeoutFor(server, "PING"));
+            List<String> responses = conn.pipeline(commands, timeoutMillis);
+            if (responses == null) {
+                conn.close();
+                return null;
             }
+            server.pool.release(conn);
+            return responses;
+        } catch (IOException e) {
+            if (conn != null) conn.close();
+            return null;
+        }
+    }
 
-            int count;
-            try {
-                count = Integer.parseInt(parts[1]);
-            } catch (NumberFormatException e) {
-                continue;
-            }
+    // ---------------------------------------------------
+    // STATS
+    // ---------------------------------------------------
+    private String handleStats() {
+        return "OK cache.hits=" + values.hits.get()
+                + " cache.misses=" + values.misses.get()
+                + " cache.size=" + values.size()
+                + " negative.hits=" + missingKeys.hits.get()
+                + " negative.size=" + missingKeys.size()
+                + " hedge.sent=" + hedgesSent.get()
+                + " hedge.won=" + hedgesWon.get()
+                + " connections.active=" + metrics.activeConnections.get()
+                + admissionStats()
+                + replicationStats()
+                + coalesceStats()
+                + " discovery.count=" + metrics.discovery.count()
+                + " discovery.p99_ms=" + metrics.discovery.percentile(0.99) / 1000000
+                + commandStats()
+                + upstreamStats();
+    }
 
-            for (int i = 0; i < count && (i + 2) < parts.length; i++) {
-                String key = parts[i + 2];
-                sessionKeys.add(key);
-                allKeys.add(key);
-                server.keys.add(key);
-                // Bu proxy açısından, bu key'e ulaşmak için bu server'a gitmek yeterli
-                keyToServer.put(key, server);
-            }
-        }
+    // İstemci işleri: kuyruk, çalışan handler'lar ve aşırı yükte reddedilenler
+    private String admissionStats() {
+        if (admission == null) return "";
+        return " queue.depth=" + admission.queueDepth()
+                + " queue.capacity=" + admission.capacity
+                + (connectionSlots != null ? " connections.max=" + connectionLimit() : "")
+                + " workers.active=" + admission.active()
+                + " workers.max=" + admission.threads
+                + " overload=" + admission.policy.name().toLowerCase(Locale.ROOT)
+                + " shed.busy=" + admission.shedBusy.get()
+                + " shed.dropped=" + admission.shedDropped.get()
+                + " shed.expired=" + admission.shedExpired.get()
+                + " admission.blocked=" + admission.blocked.get();
+    }
 
-        // Session bitti, tekrar gelebilmesi için kaldırıyoruz
-        processedSessions.remove(sessionId);
+    private String replicationStats() {
+        if (replicas <= 1) return "";
+        long pending = 0;
+        for (ServerInfo server : servers) pending += server.hints.size();
+        return " replicas=" + replicas
+                + " quorum.write=" + writeQuorum
+                + " quorum.read=" + readQuorum
+                + " repair.count=" + readRepairs.get()
+                + " hints.pending=" + pending
+                + " hints.replayed=" + hintsReplayed.get();
+    }
+
+    private String coalesceStats() {
+        if (coalescer == null) return "";
+        return " coalesce.sets=" + coalescer.sets.get()
+                + " coalesce.writes=" + coalescer.writes.get()
+                + " coalesce.failed=" + coalescer.failed.get()
+                + " coalesce.pending=" + coalescer.size();
+    }
 
+    private String commandStats() {
         StringBuilder sb = new StringBuilder();
-        sb.append("OK ").append(sessionKeys.size());
-        for (String key : sessionKeys) {
-            sb.append(" ").append(key);
+        for (Metrics.Command command : Metrics.COMMANDS) {
+            int i = command.ordinal();
+            String prefix = " cmd." + command.name().toLowerCase(Locale.ROOT) + ".";
+            sb.append(prefix).append("count=").append(metrics.requests.get(i));
+            sb.append(prefix).append("errors=").append(metrics.errors.get(i));
+            sb.append(prefix).append("p50_us=").append(metrics.latency[i].percentile(0.50) / 1000);
+            sb.append(prefix).append("p99_us=").append(metrics.latency[i].percentile(0.99) / 1000);
         }
         return sb.toString();
     }
 
-    /**
-     * Önce node'u proxy gibi kullanmayı dener:
-     *  PROXYNAMES <sessionId>
-     * Eğer "NA" dönerse düz server kabul edip GET NAMES atar.
-     */
-    private String sendProxyNamesOrGetNames(ServerInfo server, String sessionId) {
-        // Önce PROXYNAMES deneyelim (sadece proxy'ler anlayacak)
-        String response = sendCommand(server, "PROXYNAMES " + sessionId);
-        if (response == null || response.equals("NA") || !response.startsWith("OK")) {
-            // Bu node muhtemelen sadece basit server, o zaman normal protokole düş:
-            response = sendCommand(server, "GET NAMES");
-            server.isProxy = false;
-        } else {
-            server.isProxy = true;
+    private String upstreamStats() {
+        StringBuilder sb = new StringBuilder();
+        for (ServerInfo server : servers) {
+            String prefix = " upstream." + server.address + ":" + server.port + ".";
+            sb.append(prefix).append("circuit=").append(server.breaker.state());
+            sb.append(prefix).append("trips=").append(server.breaker.trips.get());
+            sb.append(prefix).append("srtt=").append(String.format(Locale.ROOT, "%.3f", server.rtt.smoothed()));
+            sb.append(prefix).append("timeout=").append(timeoutFor(server, "GET VALUE"));
+            sb.append(prefix).append("p99_us=").append(server.latency.percentile(0.99) / 1000);
+            sb.append(prefix).append("fallbacks=").append(server.fallbacks.get());
         }
-        return response;
+        return sb.toString();
     }
 
-    // ---------------------------------------------------
-    // GET VALUE / SET → Dinamik routing
-    // ---------------------------------------------------
-    private String handleGetValue(String keyName) {
-        ServerInfo server = keyToServer.get(keyName);
-        if (server == null) {
-            // Bu key'i daha önce görmediysek, tüm ağı yeniden tarayalım
-            String sessionId = UUID.randomUUID().toString();
-            gatherKeysForSession(sessionId);
-            server = keyToServer.get(keyName);
-            if (server == null) {
-                return "NA";
+    // Prometheus text exposition formatı (0.0.4)
+    private String metricsText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE proxy_requests_total counter\n");
+        for (Metrics.Command command : Metrics.COMMANDS) {
+            sb.append("proxy_requests_total{command=\"").append(command.label).append("\"} ")
+                    .append(metrics.requests.get(command.ordinal())).append('\n');
+        }
+        sb.append("# TYPE proxy_request_errors_total counter\n");
+        for (Metrics.Command command : Metrics.COMMANDS) {
+            sb.append("proxy_request_errors_total{command=\"").append(command.label).append("\"} ")
+                    .append(metrics.errors.get(command.ordinal())).append('\n');
+        }
+        sb.append("# TYPE proxy_request_duration_seconds histogram\n");
+        for (Metrics.Command command : Metrics.COMMANDS) {
+            Metrics.appendHistogram(sb, "proxy_request_duration_seconds", "command=\"" + command.label + "\"",
+                    metrics.latency[command.ordinal()]);
+        }
+        sb.append("# TYPE proxy_discovery_duration_seconds histogram\n");
+        Metrics.appendHistogram(sb, "proxy_discovery_duration_seconds", "", metrics.discovery);
+        sb.append("# TYPE proxy_active_connections gauge\n");
+        sb.append("proxy_active_connections ").append(metrics.activeConnections.get()).append('\n');
+        if (admission != null) {
+            sb.append("# TYPE proxy_queue_depth gauge\n");
+            sb.append("proxy_queue_depth ").append(admission.queueDepth()).append('\n');
+            sb.append("# TYPE proxy_queue_capacity gauge\n");
+            sb.append("proxy_queue_capacity ").append(admission.capacity).append('\n');
+            if (connectionSlots != null) {
+                sb.append("# TYPE proxy_connections_max gauge\n");
+                sb.append("proxy_connections_max ").append(connectionLimit()).append('\n');
             }
+            sb.append("# TYPE proxy_workers_active gauge\n");
+            sb.append("proxy_workers_active ").append(admission.active()).append('\n');
+            sb.append("# TYPE proxy_shed_total counter\n");
+            sb.append("proxy_shed_total{reason=\"busy\"} ").append(admission.shedBusy.get()).append('\n');
+            sb.append("proxy_shed_total{reason=\"dropped\"} ").append(admission.shedDropped.get()).append('\n');
+            sb.append("proxy_shed_total{reason=\"expired\"} ").append(admission.shedExpired.get()).append('\n');
+            sb.append("# TYPE proxy_admission_blocked_total counter\n");
+            sb.append("proxy_admission_blocked_total ").append(admission.blocked.get()).append('\n');
         }
-        String response = sendCommand(server, "GET VALUE " + keyName);
-        // sendCommand null döndürürse (sunucuya ulaşılamazsa), NA döndür
-        return response != null ? response : "NA";
+
+        sb.append("# TYPE proxy_cache_hits_total counter\n");
+        sb.append("proxy_cache_hits_total{cache=\"value\"} ").append(values.hits.get()).append('\n');
+        sb.append("proxy_cache_hits_total{cache=\"negative\"} ").append(missingKeys.hits.get()).append('\n');
+        sb.append("# TYPE proxy_cache_misses_total counter\n");
+        sb.append("proxy_cache_misses_total{cache=\"value\"} ").append(values.misses.get()).append('\n');
+        sb.append("# TYPE proxy_hedges_total counter\n");
+        sb.append("proxy_hedges_total{result=\"sent\"} ").append(hedgesSent.get()).append('\n');
+        sb.append("proxy_hedges_total{result=\"won\"} ").append(hedgesWon.get()).append('\n');
+
+        sb.append("# TYPE proxy_upstream_rtt_seconds histogram\n");
+        for (ServerInfo server : servers) {
+            Metrics.appendHistogram(sb, "proxy_upstream_rtt_seconds", upstreamLabel(server), server.latency);
+        }
+        sb.append("# TYPE proxy_upstream_fallbacks_total counter\n");
+        for (ServerInfo server : servers) {
+            sb.append("proxy_upstream_fallbacks_total{").append(upstreamLabel(server)).append("} ").append(server.fallbacks.get()).append('\n');
+        }
+        sb.append("# TYPE proxy_upstream_circuit_trips_total counter\n");
+        for (ServerInfo server : servers) {
+            sb.append("proxy_upstream_circuit_trips_total{").append(upstreamLabel(server)).append("} ").append(server.breaker.trips.get()).append('\n');
+        }
+        sb.append("# TYPE proxy_upstream_circuit_open gauge\n");
+        for (ServerInfo server : servers) {
+            sb.append("proxy_upstream_circuit_open{").append(upstreamLabel(server)).append("} ").append(server.breaker.isOpen() ? 1 : 0).append('\n');
+        }
+        if (coalescer != null) {
+            sb.append("# TYPE proxy_coalesced_sets_total counter\n");
+            sb.append("proxy_coalesced_sets_total ").append(coalescer.sets.get()).append('\n');
+            sb.append("# TYPE proxy_coalesced_writes_total counter\n");
+            sb.append("proxy_coalesced_writes_total ").append(coalescer.writes.get()).append('\n');
+            sb.append("# TYPE proxy_coalesced_write_failures_total counter\n");
+            sb.append("proxy_coalesced_write_failures_total ").append(coalescer.failed.get()).append('\n');
+            sb.append("# TYPE proxy_coalesce_pending gauge\n");
+            sb.append("proxy_coalesce_pending ").append(coalescer.size()).append('\n');
+        }
+        if (replicas > 1) {
+            sb.append("# TYPE proxy_read_repairs_total counter\n");
+            sb.append("proxy_read_repairs_total ").append(readRepairs.get()).append('\n');
+            sb.append("# TYPE proxy_hints_replayed_total counter\n");
+            sb.append("proxy_hints_replayed_total ").append(hintsReplayed.get()).append('\n');
+            sb.append("# TYPE proxy_upstream_hints_pending gauge\n");
+            for (ServerInfo server : servers) {
+                sb.append("proxy_upstream_hints_pending{").append(upstreamLabel(server)).append("} ").append(server.hints.size()).append('\n');
+            }
+        }
+        sb.append("# TYPE proxy_upstream_idle_connections gauge\n");
+        for (ServerInfo server : servers) {
+            sb.append("proxy_upstream_idle_connections{").append(upstreamLabel(server)).append("} ").append(server.pool.idleCount.get()).append('\n');
+        }
+        return sb.toString();
     }
 
-    private String handleSet(String keyName, int value) {
-        ServerInfo server = keyToServer.get(keyName);
-        if (server == null) {
-            // Key yeni bir yerde olabilir, keşfi tazele
-            String sessionId = UUID.randomUUID().toString();
-            gatherKeysForSession(sessionId);
-            server = keyToServer.get(keyName);
-            if (server == null) {
-                return "NA";
+    private static String upstreamLabel(ServerInfo server) {
+        return "upstream=\"" + server.address + ":" + server.port + "\"";
+    }
+
+    // Sadece loopback'te dinleyen, /metrics isteğine cevap veren minimal HTTP/1.1 sunucusu
+    private void startMetricsListener() {
+        try (ServerSocket serverSocket = new ServerSocket(metricsPort, 50, InetAddress.getLoopbackAddress())) {
+            Log.info("Metrics endpoint started on http://localhost:{}/metrics", metricsPort);
+            while (running) {
+                try (Socket socket = serverSocket.accept()) {
+                    socket.setSoTimeout(2000);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    String requestLine = in.readLine();
+                    String header;
+                    while ((header = in.readLine()) != null && !header.isEmpty()) {
+                        // header'lar kullanılmıyor
+                    }
+                    boolean found = requestLine != null
+                            && (requestLine.startsWith("GET /metrics ") || requestLine.startsWith("GET / "));
+                    byte[] body = (found ? metricsText() : "Not Found\n").getBytes(StandardCharsets.UTF_8);
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.1 " + (found ? "200 OK" : "404 Not Found") + "\r\n"
+                            + "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+                            + "Content-Length: " + body.length + "\r\n"
+                            + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(body);
+                    out.flush();
+                } catch (IOException e) {
+                    Log.warn("Metrics request error: {}", e.getMessage());
+                }
             }
+        } catch (IOException e) {
+            Log.error("Could not start metrics endpoint: {}", e.getMessage());
         }
-        String response = sendCommand(server, "SET " + keyName + " " + value);
-        // sendCommand null döndürürse (sunucuya ulaşılamazsa), NA döndür
-        return response != null ? response : "NA";
     }
 
     // ---------------------------------------------------
@@ -518,10 +4149,12 @@ public class Proxy {
     // ---------------------------------------------------
     private void handleQuit() {
         running = false;
+        // Birleştirilmiş SET'ler server'lar kapanmadan yazılsın
+        if (coalescer != null) coalescer.flushAll(2000);
         for (ServerInfo server : servers) {
             sendCommand(server, "QUIT");
         }
-        System.out.println("Terminating");
+        Log.info("Terminating");
         System.exit(0);
     }
 }
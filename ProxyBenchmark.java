@@ -0,0 +1,369 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.util.*;
+//=====================================================================================================
+/**
+ * Proxy'nin sıcak yolları için bağımlılıksız mikro benchmark'lar (JMH'nin avgt moduna benzer):
+ * her ölçüm önce warmup süresi boyunca çalıştırılır, sonra iterasyonlar halinde batch'ler
+ * ölçülür; batch başına ns/op değerlerinden ortalama, p50 ve p99 raporlanır. HotSpot'ta ölçüm
+ * sırasında benchmark thread'inin ayırdığı bellek de B/op olarak verilir (JMH -prof gc gibi).
+ *
+ *  parse.*    processCommand'ın upstream'e gitmeyen yolları (ayrıştırma + negatif cache);
+ *             tokenize.* eski split("\\s+") ayrıştırmasıyla Tokens + KeyPool'u karşılaştırır
+ *  route.*    büyük routing tablolarında routeFor ve mergeKeys; route.ring -shard'ın ring lookup'ı
+ *  names.*    GET NAMES / PROXYNAMES cevabının oluşturulması
+ *  forward.*  loopback TCPServer / UDPServer önünde çalışan bir Proxy üzerinden uçtan uca istek
+ *
+ * Derleme ve çalıştırma:
+ *  javac -source 8 -target 8 *.java
+ *  java ProxyBenchmark [-warmup ms] [-time ms] [-iterations n] [-keys n,n...] [-only prefix]
+ *                      [-baseport port] [-csv file]
+ */
+public class ProxyBenchmark {
+    interface Op {
+        Object run(int i) throws Exception;
+    }
+
+    private long warmupMillis = 1000;
+    private long measureMillis = 2000;
+    private int iterations = 5;
+    private int[] keyCounts = {100000, 1000000};
+    private String only;
+    private int basePort = 27000;
+    private String csvFile;
+
+    // Sonuçlar burada, bileşenlerin stdout logları ayrı tutulur
+    private final PrintStream report = System.out;
+    // JIT sonuçları kullanılmayan çağrıları silmesin
+    private static int sink;
+
+    public static void main(String[] args) throws Exception {
+        ProxyBenchmark bench = new ProxyBenchmark();
+        for (int i = 0; i < args.length;) {
+            switch (args[i]) {
+                case "-warmup":
+                    bench.warmupMillis = Long.parseLong(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-time":
+                    bench.measureMillis = Long.parseLong(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-iterations":
+                    bench.iterations = Integer.parseInt(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-keys":
+                    String[] counts = args[i + 1].split(",");
+                    bench.keyCounts = new int[counts.length];
+                    for (int k = 0; k < counts.length; k++) bench.keyCounts[k] = Integer.parseInt(counts[k]);
+                    i += 2;
+                    break;
+                case "-only":
+                    bench.only = args[i + 1];
+                    i += 2;
+                    break;
+                case "-baseport":
+                    bench.basePort = Integer.parseInt(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-csv":
+                    bench.csvFile = args[i + 1];
+                    i += 2;
+                    break;
+                default:
+                    System.err.println("Unknown parameter: " + args[i]);
+                    i++;
+            }
+        }
+        bench.runAll();
+        // Arka planda çalışan server/proxy thread'leri
+        System.exit(0);
+    }
+
+    private void runAll() throws Exception {
+        // Server'lar her istekte log basıyor; ölçümü bozmasın
+        Proxy.Log.level = Proxy.Log.Level.ERROR;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        report.println(String.format(Locale.ROOT, "%-22s %-10s %12s %12s %12s %12s %10s",
+                "benchmark", "param", "ops/s", "avg ns/op", "p50 ns/op", "p99 ns/op", "B/op"));
+
+        if (selected("parse") || selected("forward")) {
+            Proxy proxy = startLoopbackTopology();
+            benchParse(proxy);
+            benchForward();
+        }
+        if (selected("tokenize")) benchTokenize();
+        if (selected("route")) benchRouting();
+        if (selected("names")) benchNames();
+        report.println("sink=" + sink);
+    }
+
+    private boolean selected(String group) {
+        return only == null || only.startsWith(group) || group.startsWith(only);
+    }
+
+    // ---------------------------------------------------
+    // parse.*
+    // ---------------------------------------------------
+    private void benchParse(Proxy proxy) throws Exception {
+        String[] missing = new String[1024];
+        for (int i = 0; i < missing.length; i++) {
+            missing[i] = "GET VALUE missing_" + i;
+            // İlk çağrı ağı tarar ve key'i negatif cache'e yazar
+            proxy.processCommand(missing[i]);
+        }
+        String[] sets = new String[missing.length];
+        for (int i = 0; i < sets.length; i++) sets[i] = "SET missing_" + i + " " + i;
+
+        run("parse.ping", "-", 1000, i -> proxy.processCommand("PING"));
+        run("parse.get.miss", "-", 1000, i -> proxy.processCommand(missing[i & 1023]));
+        run("parse.set.miss", "-", 1000, i -> proxy.processCommand(sets[i & 1023]));
+    }
+
+    // ---------------------------------------------------
+    // tokenize.*
+    // ---------------------------------------------------
+    private void benchTokenize() throws Exception {
+        Proxy.KeyPool pool = new Proxy.KeyPool(1 << 20);
+        String[] requests = new String[1024];
+        byte[][] received = new byte[requests.length][];
+        for (int i = 0; i < requests.length; i++) {
+            String key = "sensor_" + i;
+            pool.add(key, 0, key.length());
+            requests[i] = "GET VALUE " + key;
+            received[i] = requests[i].getBytes("UTF-8");
+        }
+
+        // user-019 öncesi processCommand'ın ayrıştırması
+        run("tokenize.split", "-", 1000, i -> {
+            String[] parts = requests[i & 1023].trim().split("\\s+");
+            return parts[0].equals("GET") && parts[1].equals("VALUE") ? parts[2] : null;
+        });
+        run("tokenize.string", "-", 1000, i -> tokenizeGetValue(requests[i & 1023], pool));
+        run("tokenize.bytes", "-", 1000, i -> {
+            byte[] data = received[i & 1023];
+            return tokenizeGetValue(new Proxy.ByteSequence(data, 0, data.length), pool);
+        });
+    }
+
+    // executeCommand'daki GET VALUE yolu
+    private static String tokenizeGetValue(CharSequence request, Proxy.KeyPool pool) {
+        int from = Tokens.skipSpaces(request, 0);
+        int to = Tokens.tokenEnd(request, from);
+        if (!Tokens.is(request, from, to, "GET")) return null;
+        int typeFrom = Tokens.skipSpaces(request, to);
+        int typeTo = Tokens.tokenEnd(request, typeFrom);
+        if (!Tokens.is(request, typeFrom, typeTo, "VALUE")) return null;
+        int keyFrom = Tokens.skipSpaces(request, typeTo);
+        return pool.lookup(request, keyFrom, Tokens.tokenEnd(request, keyFrom));
+    }
+
+    // ---------------------------------------------------
+    // route.*
+    // ---------------------------------------------------
+    private void benchRouting() throws Exception {
+        for (int count : keyCounts) {
+            List<Proxy.ServerInfo> servers = new ArrayList<>();
+            for (int s = 0; s < 16; s++) servers.add(new Proxy.ServerInfo("10.0.0." + s, 8000));
+            Proxy proxy = new Proxy(0, servers);
+            String[] keys = new String[count];
+            for (int k = 0; k < count; k++) keys[k] = "key" + k;
+
+            // Discovery cevaplarını gerçek yoldan (mergeKeys) işleyerek tabloyu doldur
+            String[] replies = new String[servers.size()];
+            for (int s = 0; s < servers.size(); s++) {
+                List<String> owned = new ArrayList<>();
+                for (int k = s; k < count; k += servers.size()) owned.add(keys[k]);
+                replies[s] = Proxy.namesReply(owned);
+            }
+            long started = System.nanoTime();
+            Map<String, Integer> session = new HashMap<>();
+            for (int s = 0; s < servers.size(); s++) proxy.mergeKeys(servers.get(s), replies[s], session);
+            long elapsed = System.nanoTime() - started;
+            single("route.merge", String.valueOf(count), count, elapsed);
+
+            int[] order = shuffledIndexes(count, 1 << 16);
+            run("route.lookup", String.valueOf(count), 1000, i -> proxy.routeFor(keys[order[i & 0xFFFF]]));
+            // -shard: aynı 16 node, 160 virtual node
+            Proxy.HashRing ring = new Proxy.HashRing(servers, 160);
+            run("route.ring", String.valueOf(count), 1000, i -> ring.owner(keys[order[i & 0xFFFF]]));
+        }
+    }
+
+    // ---------------------------------------------------
+    // names.*
+    // ---------------------------------------------------
+    private void benchNames() throws Exception {
+        for (int count : new int[]{1000, 100000}) {
+            Map<String, Integer> keys = new LinkedHashMap<>();
+            for (int k = 0; k < count; k++) keys.put("key" + k, 1 + k % 4);
+            int batch = Math.max(1, 100000 / count);
+            run("names.getnames", String.valueOf(count), batch, i -> Proxy.namesReply(keys.keySet()));
+            run("names.proxynames", String.valueOf(count), batch, i -> Proxy.proxyNamesReply(keys));
+        }
+    }
+
+    // ---------------------------------------------------
+    // forward.*
+    // ---------------------------------------------------
+    private Proxy startLoopbackTopology() throws Exception {
+        int proxyPort = basePort;
+        int tcpPort = basePort + 1;
+        int udpPort = basePort + 2;
+        daemon("bench-tcpserver", () -> TCPServer.main(new String[]{"-port", String.valueOf(tcpPort), "-key", "bench_tcp", "-value", "1"}));
+        daemon("bench-udpserver", () -> UDPServer.main(new String[]{"-port", String.valueOf(udpPort), "-key", "bench_udp", "-value", "2"}));
+
+        List<Proxy.ServerInfo> servers = new ArrayList<>();
+        servers.add(new Proxy.ServerInfo("localhost", tcpPort));
+        servers.add(new Proxy.ServerInfo("localhost", udpPort));
+        Proxy proxy = new Proxy(proxyPort, servers);
+        // parse.* negatif cache'e dayanıyor, ölçüm sürerken süresi dolmasın
+        proxy.negativeTtlMillis = 3600000;
+        daemon("bench-proxy", proxy::start);
+
+        long deadline = System.currentTimeMillis() + 20000;
+        while (true) {
+            try (Socket socket = new Socket("localhost", proxyPort)) {
+                socket.setSoTimeout(2000);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                out.println("GET NAMES");
+                String names = in.readLine();
+                if (names != null && names.contains("bench_tcp") && names.contains("bench_udp")) break;
+            } catch (IOException e) {
+                // Proxy henüz dinlemiyor
+            }
+            if (System.currentTimeMillis() > deadline) throw new IOException("Proxy did not start on port " + proxyPort);
+            Thread.sleep(200);
+        }
+        return proxy;
+    }
+
+    private void benchForward() throws Exception {
+        try (Socket socket = new Socket("localhost", basePort)) {
+            socket.setSoTimeout(5000);
+            socket.setTcpNoDelay(true);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), false);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            run("forward.tcp.tcp", "-", 1, i -> {
+                out.print("GET VALUE bench_tcp\n");
+                out.flush();
+                return in.readLine();
+            });
+            run("forward.tcp.udp", "-", 1, i -> {
+                out.print("GET VALUE bench_udp\n");
+                out.flush();
+                return in.readLine();
+            });
+        }
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(5000);
+            InetSocketAddress proxy = new InetSocketAddress("localhost", basePort);
+            byte[] request = "GET VALUE bench_udp".getBytes("UTF-8");
+            byte[] buffer = new byte[1024];
+            run("forward.udp.udp", "-", 1, i -> {
+                socket.send(new DatagramPacket(request, request.length, proxy));
+                DatagramPacket reply = new DatagramPacket(buffer, buffer.length);
+                socket.receive(reply);
+                return reply.getLength();
+            });
+        }
+    }
+
+    // ---------------------------------------------------
+    // Ölçüm
+    // ---------------------------------------------------
+    private void run(String name, String param, int batch, Op op) throws Exception {
+        if (only != null && !name.startsWith(only)) return;
+
+        int i = 0;
+        long warmupEnd = System.nanoTime() + warmupMillis * 1000000L;
+        while (System.nanoTime() < warmupEnd) {
+            for (int b = 0; b < batch; b++) consume(op.run(i++));
+        }
+
+        long[] samples = new long[1 << 16];
+        int sampleCount = 0;
+        long allocatedBefore = allocatedBytes();
+        long totalOps = 0;
+        long totalNanos = 0;
+        for (int it = 0; it < iterations; it++) {
+            long iterationEnd = System.nanoTime() + measureMillis * 1000000L;
+            while (System.nanoTime() < iterationEnd) {
+                long started = System.nanoTime();
+                for (int b = 0; b < batch; b++) consume(op.run(i++));
+                long elapsed = System.nanoTime() - started;
+                if (sampleCount == samples.length) samples = Arrays.copyOf(samples, sampleCount * 2);
+                samples[sampleCount++] = elapsed / batch;
+                totalOps += batch;
+                totalNanos += elapsed;
+            }
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+        Arrays.sort(samples, 0, sampleCount);
+        print(name, param, totalOps * 1e9 / totalNanos, (double) totalNanos / totalOps,
+                samples[percentileIndex(sampleCount, 0.50)], samples[percentileIndex(sampleCount, 0.99)],
+                allocatedBefore < 0 ? -1 : (double) allocated / totalOps);
+    }
+
+    // Tek seferlik işler (ör. tablo doldurma) için: ops adet işin toplam süresi
+    private void single(String name, String param, long ops, long elapsedNanos) throws IOException {
+        if (only != null && !name.startsWith(only)) return;
+        double perOp = (double) elapsedNanos / ops;
+        print(name, param, ops * 1e9 / elapsedNanos, perOp, (long) perOp, (long) perOp, -1);
+    }
+
+    // bytesPerOp < 0: ölçülmedi
+    private void print(String name, String param, double opsPerSecond, double avg, long p50, long p99, double bytesPerOp) throws IOException {
+        String allocation = bytesPerOp < 0 ? "-" : String.format(Locale.ROOT, "%.1f", bytesPerOp);
+        report.println(String.format(Locale.ROOT, "%-22s %-10s %12.0f %12.1f %12d %12d %10s",
+                name, param, opsPerSecond, avg, p50, p99, allocation));
+        if (csvFile != null) {
+            try (PrintWriter csv = new PrintWriter(new FileWriter(csvFile, true))) {
+                csv.println(String.format(Locale.ROOT, "%d,%s,%s,%.0f,%.1f,%d,%d,%s",
+                        System.currentTimeMillis(), name, param, opsPerSecond, avg, p50, p99, bytesPerOp < 0 ? "" : allocation));
+            }
+        }
+    }
+
+    // HotSpot'ta bu thread'in şimdiye kadar ayırdığı byte sayısı; desteklenmiyorsa -1
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static int percentileIndex(int count, double q) {
+        return Math.max(0, Math.min(count - 1, (int) Math.ceil(q * count) - 1));
+    }
+
+    private static void consume(Object result) {
+        if (result != null) sink += result.hashCode();
+    }
+
+    private static int[] shuffledIndexes(int bound, int size) {
+        Random random = new Random(42);
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) indexes[i] = random.nextInt(bound);
+        return indexes;
+    }
+
+    private static void daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -12,6 +12,9 @@ public class TCPClient {
 		InetAddress address = null;
 		int port = 0;
 		String command = "";
+		List<String> commands = new ArrayList<>();
+		int repeat = 1;
+		boolean reconnect = false;
 
 
 		for(int i=0; i<args.length;) {
@@ -52,11 +55,29 @@ public class TCPClient {
                                                 	value = Integer.parseInt(args[i++]);
 							command += " " + name + " " + value;
                                         		break;
+						case "MGET":
+						case "MSET":
+							while(i < args.length && !args[i].matches("-[a-z]+")) {
+								command += " " + args[i++];
+							}
+							break;
 						case "QUIT":
+						case "REFRESH":
+						case "STATS":
+						case "PING":
 							break;
 						default:
 							System.err.println("Unknown: " + command);
 					}
+					commands.add(command);
+					break;
+				case "-repeat":
+					repeat = Integer.parseInt(args[i+1]);
+					i += 2;
+					break;
+				case "-reconnect":
+					reconnect = true;
+					i++;
 					break;
 				default:
 					System.err.println("Unknown parameter: " + args[i]);
@@ -69,6 +90,11 @@ public class TCPClient {
                         System.exit(1);
                 }
 
+		if(commands.size() > 1 || repeat > 1) {
+			runSession(address, port, commands, repeat, reconnect);
+			return;
+		}
+
 		try {
 			System.out.println("Creating a client socket");
 			socket = new Socket(address, port);
@@ -96,4 +122,110 @@ public class TCPClient {
 			System.exit(1);
 		}
 	}
+
+	// Birden fazla komut: hepsi tek bağlantı üzerinden pipelined gönderilir, cevaplar sırayla okunur.
+	// -reconnect ile her komut için yeni bağlantı açılır (karşılaştırma için).
+	static void runSession(InetAddress address, int port, List<String> commands, int repeat, boolean reconnect) {
+		int requests = 0;
+		long start = System.nanoTime();
+
+		try {
+			requests = reconnect ? runReconnecting(address, port, commands, repeat) : runPipelined(address, port, commands, repeat);
+		} catch(IOException e) {
+			System.err.println("Error at work: " + e);
+			System.exit(1);
+		}
+
+		if(repeat > 1) {
+			double millis = (System.nanoTime() - start) / 1e6;
+			System.out.printf("%d requests in %.1f ms (%.0f req/s, %s)%n", requests, millis, requests * 1000.0 / millis,
+					reconnect ? "connection per request" : "single connection");
+		}
+	}
+
+	// Cevaplar ayrı bir thread'de okunurken komutlar yazılmaya devam eder. Önce hepsini yazıp sonra
+	// okumak, -repeat büyükken okunmayan cevaplar socket buffer'larını doldurunca server'ın yazması,
+	// ardından bizim yazmamız tıkandığı için kilitlenirdi.
+	private static int runPipelined(InetAddress address, int port, List<String> commands, int repeat) throws IOException {
+		int perRound = 0;
+		for(String command : commands) {
+			if(!command.equals("QUIT")) {
+				perRound++;
+			}
+		}
+		final int responses = perRound * repeat;
+		final boolean print = repeat == 1;
+		final IOException[] readError = new IOException[1];
+
+		Socket socket = new Socket(address, port);
+		try {
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			Thread reader = new Thread(() -> {
+				try {
+					for(int r=0; r<responses; r++) {
+						String response = in.readLine();
+						if(response == null) {
+							System.err.println("Connection closed by server");
+							System.exit(1);
+						}
+						if(print) {
+							System.out.println(response);
+						}
+					}
+				} catch(IOException e) {
+					readError[0] = e;
+				}
+			}, "tcp-client-reader");
+			reader.start();
+
+			PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false);
+			for(int round=0; round<repeat; round++) {
+				for(String command : commands) {
+					out.println(command);
+				}
+			}
+			out.flush();
+			try {
+				reader.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for responses");
+			}
+			if(readError[0] != null) {
+				throw readError[0];
+			}
+		} finally {
+			socket.close();
+		}
+		return responses;
+	}
+
+	private static int runReconnecting(InetAddress address, int port, List<String> commands, int repeat) throws IOException {
+		int requests = 0;
+		for(int round=0; round<repeat; round++) {
+			for(String command : commands) {
+				try (Socket socket = new Socket(address, port)) {
+					socket.setTcpNoDelay(true);
+					PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false);
+					BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+					out.println(command);
+					out.flush();
+					if(command.equals("QUIT")) {
+						continue;
+					}
+					String response = in.readLine();
+					if(response == null) {
+						System.err.println("Connection closed by server");
+						System.exit(1);
+					}
+					if(repeat == 1) {
+						System.out.println(response);
+					}
+					requests++;
+				}
+			}
+		}
+		return requests;
+	}
 }
@@ -1,6 +1,8 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class TCPServer {
 	public static void main(String args[]) {
@@ -11,6 +13,18 @@ public class TCPServer {
 		int portNumber = 0;
 		String keyName = null;
 		int keyValue = 0;
+		// Çok key'li mod: -keys dosyası ve/veya -range ile KeyStore'dan, bağlantılar eşzamanlı
+		String keysFile = null;
+		String rangePrefix = null;
+		int rangeFrom = 0;
+		int rangeTo = -1;
+		// -data: SET'ler write-ahead log'a yazılır, açılışta snapshot + log'dan geri yüklenir
+		String dataDir = null;
+		boolean fsync = true;
+		long snapshotSeconds = 60;
+		// -create: SET bilinmeyen key'i ekler (Proxy -shard için); server boş başlayabilir
+		boolean create = false;
+		int threads = 256;
 
 		for(int i=0; i<args.length;) {
 			switch(args[i]) {
@@ -26,11 +40,54 @@ public class TCPServer {
 					keyValue = Integer.parseInt(args[i+1]);
 					i += 2;
 					break;
+				case "-keys" :
+					keysFile = args[i+1];
+					i += 2;
+					break;
+				case "-range" :
+					rangePrefix = args[i+1];
+					rangeFrom = Integer.parseInt(args[i+2]);
+					rangeTo = Integer.parseInt(args[i+3]);
+					i += 4;
+					break;
+				case "-data" :
+					dataDir = args[i+1];
+					i += 2;
+					break;
+				case "-fsync" :
+					if(!args[i+1].equals("group") && !args[i+1].equals("off")) {
+						System.err.println("Unknown fsync mode: " + args[i+1]);
+						System.exit(1);
+					}
+					fsync = args[i+1].equals("group");
+					i += 2;
+					break;
+				case "-create" :
+					create = true;
+					i += 1;
+					break;
+				case "-snapshot" :
+					snapshotSeconds = Long.parseLong(args[i+1]);
+					i += 2;
+					break;
+				case "-threads" :
+					threads = Integer.parseInt(args[i+1]);
+					i += 2;
+					break;
 				default:
 					System.err.println("Unknown parameter: " + args[i]);
 					i++;
 			}
 		}
+		if(keysFile != null || rangePrefix != null || dataDir != null || create) {
+			if(portNumber == 0 || threads < 1) {
+				System.err.println("Incorrect execution syntax");
+				System.exit(1);
+			}
+			KeyStore store = loadStore(keyName, keyValue, keysFile, rangePrefix, rangeFrom, rangeTo, dataDir, fsync, snapshotSeconds, create);
+			serveStore(portNumber, store, threads);
+			return;
+		}
 		if(portNumber == 0 || keyName == null) {
 			System.err.println("Incorrect execution syntax");
 			System.exit(1);
@@ -116,4 +173,98 @@ public class TCPServer {
 			System.err.println("Error at work: " + e);
 		}
 	}    
+
+	// ---------------------------------------------------
+	// Çok key'li mod
+	// ---------------------------------------------------
+	// Boşta kalan bağlantılar bu kadar süre sonra kapatılır, thread'i başka istemciye kalır
+	private static final int IDLE_MILLIS = 30000;
+
+	private static KeyStore loadStore(String keyName, int keyValue, String keysFile, String rangePrefix, int rangeFrom, int rangeTo,
+	                                  String dataDir, boolean fsync, long snapshotSeconds, boolean create) {
+		KeyStore store = null;
+		try {
+			store = KeyStore.fromOptions(keyName, keyValue, keysFile, rangePrefix, rangeFrom, rangeTo);
+			if(dataDir != null) {
+				WriteAheadLog.open(new File(dataDir), store, fsync, snapshotSeconds);
+				System.out.println("Recovered " + store.size() + " keys from " + dataDir);
+			}
+			store.setCreateOnSet(create);
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't load keys: " + e.getMessage());
+			System.exit(1);
+		}
+		if(store.size() == 0 && !create) {
+			System.err.println("No keys to serve");
+			System.exit(1);
+		}
+		return store;
+	}
+
+	private static final byte[] BUSY_LINE = "BUSY\n".getBytes(StandardCharsets.US_ASCII);
+
+	// Her bağlantı havuzdaki bir thread'de, kapanana kadar satır satır komut alır. Bütün thread'ler
+	// doluyken gelen bağlantı kuyrukta IDLE_MILLIS'e kadar cevapsız beklemesin: BUSY alıp kapanır
+	private static void serveStore(int portNumber, KeyStore store, int threads) {
+		ExecutorService handlers = Executors.newFixedThreadPool(threads);
+		Semaphore slots = new Semaphore(threads);
+		try (ServerSocket serverSocket = new ServerSocket(portNumber)) {
+			System.out.println("Serving " + store.size() + " keys over TCP at port " + portNumber + " with " + threads + " threads");
+			while(true) {
+				Socket clientSocket = serverSocket.accept();
+				if(!slots.tryAcquire()) {
+					refuse(clientSocket);
+					continue;
+				}
+				handlers.execute(() -> {
+					try {
+						handleStoreClient(clientSocket, store);
+					} finally {
+						slots.release();
+					}
+				});
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Counldn't create a server socket: " + e);
+			System.exit(1);
+		}
+	}
+
+	private static void refuse(Socket clientSocket) {
+		try (Socket socket = clientSocket) {
+			socket.getOutputStream().write(BUSY_LINE);
+		}
+		catch (IOException ignored) {
+		}
+	}
+
+	private static void handleStoreClient(Socket clientSocket, KeyStore store) {
+		try (Socket socket = clientSocket) {
+			socket.setSoTimeout(IDLE_MILLIS);
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+			String request;
+			while((request = in.readLine()) != null) {
+				String response = store.handle(request);
+				if(response == null) {
+					System.out.println("Terminating");
+					System.exit(0);
+				}
+				out.write(response);
+				out.write('\n');
+				// Arkada bekleyen pipelined komut yoksa cevapları gönder
+				if(!in.ready()) out.flush();
+			}
+			out.flush();
+		}
+		catch (SocketTimeoutException e) {
+			// boşta kaldı, bağlantı kapanır
+		}
+		catch (IOException e) {
+			System.err.println("Error at work: " + e);
+		}
+	}
 }
@@ -0,0 +1,78 @@
+//=====================================================================================================
+/**
+ * Regex ve ara String kullanmayan tokenizer. Komutlar CharSequence üzerinde indekslerle
+ * gezilerek ayrıştırılır; kelimeler sabitlerle karakter karakter karşılaştırılır, sayılar
+ * yerinde okunur. Boşluk tanımı split("\\s+") ile aynıdır. Proxy ile TCPServer/UDPServer'ın
+ * KeyStore'u aynı satırı aynı kelimelere ayırsın diye ikisi de bu sınıfı kullanır.
+ */
+final class Tokens {
+    private Tokens() {
+    }
+
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B;
+    }
+
+    static int skipSpaces(CharSequence s, int i) {
+        int end = s.length();
+        while (i < end && isSpace(s.charAt(i))) i++;
+        return i;
+    }
+
+    static int tokenEnd(CharSequence s, int i) {
+        int end = s.length();
+        while (i < end && !isSpace(s.charAt(i))) i++;
+        return i;
+    }
+
+    static boolean is(CharSequence s, int from, int to, String word) {
+        if (to - from != word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (s.charAt(from + i) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // Integer.parseInt ile aynı kabul kuralları; geçersizse ya da taşarsa Long.MIN_VALUE
+    static long parseInt(CharSequence s, int from, int to) {
+        if (from >= to) return Long.MIN_VALUE;
+        boolean negative = s.charAt(from) == '-';
+        int i = negative || s.charAt(from) == '+' ? from + 1 : from;
+        if (i == to) return Long.MIN_VALUE;
+        long value = 0;
+        for (; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return Long.MIN_VALUE;
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) return Long.MIN_VALUE;
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
+    }
+
+    static int countTokens(CharSequence s, int i) {
+        int count = 0;
+        int end = s.length();
+        while ((i = skipSpaces(s, i)) < end) {
+            count++;
+            i = tokenEnd(s, i);
+        }
+        return count;
+    }
+
+    /**
+     * s + "\n"'yi ASCII olarak dst'ye yazar ve yazılan byte sayısını döner; ASCII dışı
+     * karakter varsa ya da sığmazsa -1 (çağıran UTF-8 getBytes'a düşer).
+     */
+    static int encodeLine(String s, byte[] dst, int offset) {
+        int n = s.length();
+        if (offset + n + 1 > dst.length) return -1;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) return -1;
+            dst[offset + i] = (byte) c;
+        }
+        dst[offset + n] = '\n';
+        return n + 1;
+    }
+}
@@ -3,6 +3,9 @@ import java.net.*;
 import java.io.*;
 
 public class UDPClient {
+	// Tek datagram'ın taşıyabileceği en fazla veri; MGET/MSET, STATS ve uzun GET NAMES cevapları kesilmesin
+	private static final int MAX_DATAGRAM = 65507;
+
 	public static void main(String[] args) {
 		
 		DatagramSocket socket = null;
@@ -50,7 +53,16 @@ public class UDPClient {
                                                 	value = Integer.parseInt(args[i++]);
 							command += " " + name + " " + value;
                                         		break;
+						case "MGET":
+						case "MSET":
+							while(i < args.length && !args[i].matches("-[a-z]+")) {
+								command += " " + args[i++];
+							}
+							break;
 						case "QUIT":
+						case "REFRESH":
+						case "STATS":
+						case "PING":
 							break;
 						default:
 							System.err.println("Unknown: " + command);
@@ -87,7 +99,7 @@ public class UDPClient {
 		}
 	
 		if(! command.equals("QUIT")) {	
-			buffer = new byte[256];
+			buffer = new byte[MAX_DATAGRAM];
 			packet = new DatagramPacket(buffer, buffer.length);
 			try{
 				System.out.println("Waiting for a response");
@@ -1,5 +1,6 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class UDPServer {
@@ -10,6 +11,18 @@ public class UDPServer {
 		int portNumber = 0;
 		String keyName = null;
 		int keyValue = 0;
+		// Çok key'li mod: -keys dosyası ve/veya -range ile KeyStore'dan, istekler eşzamanlı
+		String keysFile = null;
+		String rangePrefix = null;
+		int rangeFrom = 0;
+		int rangeTo = -1;
+		// -data: SET'ler write-ahead log'a yazılır, açılışta snapshot + log'dan geri yüklenir
+		String dataDir = null;
+		boolean fsync = true;
+		long snapshotSeconds = 60;
+		// -create: SET bilinmeyen key'i ekler (Proxy -shard için); server boş başlayabilir
+		boolean create = false;
+		int threads = Runtime.getRuntime().availableProcessors();
 		
 		for(int i=0; i<args.length;) {
 			switch(args[i]) {
@@ -25,11 +38,54 @@ public class UDPServer {
 					keyValue = Integer.parseInt(args[i+1]);
 					i += 2;
 					break;
+				case "-keys" :
+					keysFile = args[i+1];
+					i += 2;
+					break;
+				case "-range" :
+					rangePrefix = args[i+1];
+					rangeFrom = Integer.parseInt(args[i+2]);
+					rangeTo = Integer.parseInt(args[i+3]);
+					i += 4;
+					break;
+				case "-data" :
+					dataDir = args[i+1];
+					i += 2;
+					break;
+				case "-fsync" :
+					if(!args[i+1].equals("group") && !args[i+1].equals("off")) {
+						System.err.println("Unknown fsync mode: " + args[i+1]);
+						System.exit(1);
+					}
+					fsync = args[i+1].equals("group");
+					i += 2;
+					break;
+				case "-create" :
+					create = true;
+					i += 1;
+					break;
+				case "-snapshot" :
+					snapshotSeconds = Long.parseLong(args[i+1]);
+					i += 2;
+					break;
+				case "-threads" :
+					threads = Integer.parseInt(args[i+1]);
+					i += 2;
+					break;
 				default:
 					System.err.println("Unknown parameter: " + args[i]);
 					i++;
 			}
 		}
+		if(keysFile != null || rangePrefix != null || dataDir != null || create) {
+			if(portNumber == 0 || threads < 1) {
+				System.err.println("Incorrect execution syntax");
+				System.exit(1);
+			}
+			KeyStore store = loadStore(keyName, keyValue, keysFile, rangePrefix, rangeFrom, rangeTo, dataDir, fsync, snapshotSeconds, create);
+			serveStore(portNumber, store, threads);
+			return;
+		}
 		if(portNumber == 0 || keyName == null) {
 			System.err.println("Incorrect execution syntax");
 			System.exit(1);
@@ -63,8 +119,14 @@ public class UDPServer {
 
 			String input = "";
 			String output = "";
+			// Proxy'nin "@<id> " etiketi cevapta aynen geri yollanır
+			String tag = "";
 
 			command=in.next();
+			if(command.startsWith("@")) {
+				tag = command + " ";
+				command = in.next();
+			}
 			input = command;
 			switch(command) {
 				case "GET": 
@@ -108,7 +170,7 @@ public class UDPServer {
 			System.out.println("Parsed command: " + input);
 			System.out.println("Response: " + output);
 
-			packet.setData(output.getBytes());
+			packet.setData((tag + output).getBytes());
 			serverSocket.send(packet);
 			
 		    	in.close();
@@ -118,4 +180,75 @@ public class UDPServer {
 			System.err.println(e);
 		}
 	}    
+
+	// ---------------------------------------------------
+	// Çok key'li mod
+	// ---------------------------------------------------
+	// IPv4 üzerinden bir datagram'ın taşıyabileceği en büyük veri
+	private static final int MAX_DATAGRAM = 65507;
+
+	private static KeyStore loadStore(String keyName, int keyValue, String keysFile, String rangePrefix, int rangeFrom, int rangeTo,
+	                                  String dataDir, boolean fsync, long snapshotSeconds, boolean create) {
+		KeyStore store = null;
+		try {
+			store = KeyStore.fromOptions(keyName, keyValue, keysFile, rangePrefix, rangeFrom, rangeTo);
+			if(dataDir != null) {
+				WriteAheadLog.open(new File(dataDir), store, fsync, snapshotSeconds);
+				System.out.println("Recovered " + store.size() + " keys from " + dataDir);
+			}
+			store.setCreateOnSet(create);
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't load keys: " + e.getMessage());
+			System.exit(1);
+		}
+		if(store.size() == 0 && !create) {
+			System.err.println("No keys to serve");
+			System.exit(1);
+		}
+		return store;
+	}
+
+	// threads adet thread aynı socket'ten alır, işler ve cevaplar
+	private static void serveStore(int portNumber, KeyStore store, int threads) {
+		DatagramSocket serverSocket = null;
+		try {
+			serverSocket = new DatagramSocket(portNumber);
+		}
+		catch (IOException e) {
+			System.err.println("Counldn't create a server socket: " + e);
+			System.exit(1);
+		}
+		System.out.println("Serving " + store.size() + " keys over UDP at port " + portNumber + " with " + threads + " threads");
+		final DatagramSocket socket = serverSocket;
+		for(int t = 0; t < threads; t++) {
+			new Thread(() -> receiveStoreRequests(socket, store), "udp-server-" + t).start();
+		}
+	}
+
+	private static void receiveStoreRequests(DatagramSocket socket, KeyStore store) {
+		byte[] buffer = new byte[MAX_DATAGRAM];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while(true) try {
+			packet.setData(buffer);
+			socket.receive(packet);
+			String response = store.handle(new String(buffer, 0, packet.getLength(), StandardCharsets.UTF_8));
+			if(response == null) {
+				System.out.println("Terminating");
+				System.exit(0);
+			}
+			byte[] data = response.getBytes(StandardCharsets.UTF_8);
+			if(data.length > MAX_DATAGRAM) {
+				// Çok sayıda key'in GET NAMES cevabı bir datagram'a sığmaz
+				System.err.println("Response too large for a datagram (" + data.length + " bytes), use TCPServer for this many keys");
+				data = "NA".getBytes(StandardCharsets.UTF_8);
+			}
+			packet.setData(data);
+			socket.send(packet);
+		}
+		catch (IOException e) {
+			System.err.println("Error at work");
+			System.err.println(e);
+		}
+	}
 }
@@ -0,0 +1,408 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.zip.CRC32;
+//=====================================================================================================
+/**
+ * KeyStore için kalıcılık: SET'lerin append-only write-ahead log'u ve periyodik snapshot'lar.
+ *
+ * Log, data dizinindeki wal-<seq>.log segmentlerinden oluşur. Aktif segment memory-mapped'tir;
+ * bir kayıt eklemek sadece mapped buffer'a bir kopyalamadır, sistem çağrısı yoktur. Kayıt:
+ *   [int payload uzunluğu][int CRC32(payload)][payload = key (UTF-8) + int değer]
+ * Segment önceden sıfırla ayrıldığı için uzunluğu 0 olan kayıt logun sonudur; yarım yazılmış
+ * kayıt CRC'den yakalanır ve replay orada durur.
+ *
+ * Group commit: SET kaydını ekleyen thread, kaydın diske yazılmasını (force) bekler. Tek bir
+ * flusher thread'i force'u tekrar tekrar çağırır; bir force sürerken gelen bütün kayıtlar bir
+ * sonraki force'la birlikte diske iner. Böylece yük arttıkça fsync başına düşen SET sayısı artar
+ * ve throughput fsync gecikmesiyle sınırlı kalmaz. "-fsync off"ta force beklenmez: kayıt page
+ * cache'e yazıldığı an SET cevaplanır (JVM çökmesinde kaybolmaz, işletim sistemi çökmesinde kaybolabilir).
+ *
+ * Snapshot: log yeni bir segmente geçirilir, tablonun tamamı snapshot.tmp'ye yazılır, fsync'lenir
+ * ve atomik rename ile snapshot olur; içinde replay'in başlayacağı segment numarası vardır. Artık
+ * gerekmeyen eski segmentler silinir. Açılışta snapshot, ardından log kuyruğu yüklenir.
+ */
+public class WriteAheadLog implements KeyStore.Journal {
+    private static final int SEGMENT_BYTES = 32 << 20;
+    private static final int RECORD_HEADER = 8;
+    private static final int SNAPSHOT_MAGIC = 0x4B534E50; // "KSNP"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT = "snapshot";
+    private static final String SNAPSHOT_TMP = "snapshot.tmp";
+
+    private final File directory;
+    private final KeyStore store;
+    private final boolean fsync;
+
+    // Aktif segment ve ekleme durumu (appendLock altında)
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition pending = appendLock.newCondition();
+    private final Condition flushed = appendLock.newCondition();
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentSeq;
+    // Log'a şimdiye kadar eklenen / diske yazıldığı kesin olan byte sayısı (tüm segmentler boyunca)
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private final CRC32 crc = new CRC32();
+    private byte[] scratch = new byte[64];
+
+    // Snapshot'lar sırayla alınır; son snapshot'tan beri log'a bir şey eklenmediyse atlanır
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    private long appendedAtSnapshot;
+    private final ScheduledExecutorService snapshots;
+
+    private WriteAheadLog(File directory, KeyStore store, boolean fsync) {
+        this.directory = directory;
+        this.store = store;
+        this.fsync = fsync;
+        snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wal-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Snapshot'ı ve log kuyruğunu store'a yükler (store'daki başlangıç değerlerinin üzerine),
+     * hemen bir snapshot alıp eski segmentleri siler ve store'un SET'lerini loglamaya başlar.
+     */
+    public static WriteAheadLog open(File directory, KeyStore store, boolean fsync, long snapshotSeconds) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create data directory " + directory);
+        }
+        WriteAheadLog log = new WriteAheadLog(directory, store, fsync);
+        long nextSeq = log.recover();
+        log.appendLock.lock();
+        try {
+            log.openSegment(nextSeq);
+        } finally {
+            log.appendLock.unlock();
+        }
+        // Replay edilen her şey bu snapshot'a girer; yarım kalmış kuyruğu olan segmentler de silinir
+        log.writeSnapshot(nextSeq);
+        log.deleteSegmentsBefore(nextSeq);
+
+        if (fsync) {
+            Thread flusher = new Thread(log::flushLoop, "wal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        if (snapshotSeconds > 0) {
+            log.snapshots.scheduleWithFixedDelay(log::snapshotQuietly, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+        }
+        store.setJournal(log);
+        return log;
+    }
+
+    // ---------------------------------------------------
+    // Ekleme ve group commit
+    // ---------------------------------------------------
+    /** Kaydı aktif segmente ekler; dönen değer awaitDurable'a verilir. */
+    public long append(String key, int value) throws IOException {
+        appendLock.lock();
+        try {
+            if (failure != null) throw failure;
+            int keyLength = encode(key);
+            int payload = keyLength + 4;
+            if (segment.remaining() < RECORD_HEADER + payload + 4) {
+                rollSegment();
+                // Dolan segmenti snapshot'la gereksiz hale getir
+                snapshots.execute(this::snapshotQuietly);
+            }
+            crc.reset();
+            crc.update(scratch, 0, keyLength);
+            crc.update(value >>> 24);
+            crc.update(value >>> 16);
+            crc.update(value >>> 8);
+            crc.update(value);
+            segment.putInt(payload);
+            segment.putInt((int) crc.getValue());
+            segment.put(scratch, 0, keyLength);
+            segment.putInt(value);
+            appended += RECORD_HEADER + payload;
+            pending.signal();
+            return appended;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /** Kayıt (ve ondan öncekiler) diske yazılana kadar bekler. */
+    public void awaitDurable(long position) throws IOException {
+        if (!fsync) return;
+        appendLock.lock();
+        try {
+            while (durable < position) {
+                if (failure != null) throw failure;
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Key'i scratch'e UTF-8 olarak yazar (ASCII key'lerde ara byte[] oluşmaz)
+    private int encode(String key) {
+        int length = key.length();
+        if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                if (scratch.length < bytes.length) scratch = new byte[bytes.length];
+                System.arraycopy(bytes, 0, scratch, 0, bytes.length);
+                return bytes.length;
+            }
+            scratch[i] = (byte) c;
+        }
+        return length;
+    }
+
+    // Force sürerken eklenen kayıtlar bir sonraki turda topluca yazılır
+    private void flushLoop() {
+        while (true) {
+            long target;
+            MappedByteBuffer buffer;
+            appendLock.lock();
+            try {
+                while (durable == appended) pending.awaitUninterruptibly();
+                target = appended;
+                buffer = segment;
+            } finally {
+                appendLock.unlock();
+            }
+            // Ekleme kilidi dışında: force sürerken yeni kayıtlar eklenmeye devam eder
+            try {
+                buffer.force();
+            } catch (Throwable e) {
+                // Flusher ölürse bekleyen SET'ler hiç uyanmaz: hata olarak bildir ve dur
+                appendLock.lock();
+                try {
+                    failure = e instanceof IOException ? (IOException) e : new IOException("WAL flush failed", e);
+                    flushed.signalAll();
+                } finally {
+                    appendLock.unlock();
+                }
+                System.err.println("WAL flush failed: " + e);
+                return;
+            }
+            appendLock.lock();
+            try {
+                if (target > durable) durable = target;
+                flushed.signalAll();
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    // appendLock altında çağrılır
+    private void rollSegment() throws IOException {
+        try {
+            segment.force();
+            durable = appended;
+            flushed.signalAll();
+            channel.close();
+            openSegment(segmentSeq + 1);
+        } catch (IOException e) {
+            // Log'a artık yazılamıyor; bekleyenler ve sonraki SET'ler hata alır
+            failure = e;
+            flushed.signalAll();
+            throw e;
+        }
+    }
+
+    // appendLock altında çağrılır
+    private void openSegment(long seq) throws IOException {
+        File file = segmentFile(seq);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        segmentSeq = seq;
+        syncDirectory();
+    }
+
+    // ---------------------------------------------------
+    // Snapshot
+    // ---------------------------------------------------
+    public void snapshot() throws IOException {
+        snapshotLock.lock();
+        try {
+            long firstSeq;
+            appendLock.lock();
+            try {
+                if (appended == appendedAtSnapshot) return;
+                // Bundan sonraki SET'ler yeni segmente gider; snapshot en az buraya kadarını içerir
+                if (segment.position() > 0) rollSegment();
+                firstSeq = segmentSeq;
+                appendedAtSnapshot = appended;
+            } finally {
+                appendLock.unlock();
+            }
+            writeSnapshot(firstSeq);
+            deleteSegmentsBefore(firstSeq);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            System.err.println("Snapshot failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Snapshot dosyası: magic, sürüm, replay'in başlayacağı segment, key'ler ([int uzunluk][UTF-8]
+     * [int değer]), key sayısı ve sonda hepsinin CRC32'si (long).
+     * Tablo yazılırken gelen SET'ler de snapshot'a girebilir; firstSeq'ten itibaren replay
+     * onları aynı sırayla tekrar uygular, sonuç değişmez.
+     */
+    private void writeSnapshot(long firstSeq) throws IOException {
+        File tmp = new File(directory, SNAPSHOT_TMP);
+        CRC32 checksum = new CRC32();
+        try (FileOutputStream file = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new java.util.zip.CheckedOutputStream(file, checksum), 1 << 16));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(firstSeq);
+            int[] count = {0};
+            try {
+                store.forEach((key, value) -> {
+                    try {
+                        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                        out.writeInt(value);
+                        count[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.writeInt(count[0]);
+            out.flush();
+            // CRC, kendisinden önceki her şeyin üzerinden
+            long value = checksum.getValue();
+            new DataOutputStream(file).writeLong(value);
+            file.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), new File(directory, SNAPSHOT).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+    // ---------------------------------------------------
+    // Açılış
+    // ---------------------------------------------------
+    // Snapshot'ı ve ardından gelen segmentleri yükler, yeni segmentin numarasını döner
+    private long recover() throws IOException {
+        long firstSeq = 0;
+        File snapshotFile = new File(directory, SNAPSHOT);
+        if (snapshotFile.exists()) {
+            firstSeq = loadSnapshot(snapshotFile);
+        }
+        long nextSeq = firstSeq;
+        for (long seq : segmentNumbers()) {
+            if (seq < firstSeq) continue;
+            replaySegment(segmentFile(seq));
+            nextSeq = seq + 1;
+        }
+        return nextSeq;
+    }
+
+    private long loadSnapshot(File file) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        if (data.length < 28) throw new IOException("Snapshot " + file + " is truncated");
+        CRC32 checksum = new CRC32();
+        checksum.update(data, 0, data.length - 8);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getLong(data.length - 8) != checksum.getValue()) {
+            throw new IOException("Snapshot " + file + " is corrupt (checksum mismatch)");
+        }
+        if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+            throw new IOException("Snapshot " + file + " has an unknown format");
+        }
+        long firstSeq = buffer.getLong();
+        int end = data.length - 12;
+        int count = 0;
+        while (buffer.position() < end) {
+            int length = buffer.getInt();
+            String key = new String(data, buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            store.put(key, buffer.getInt());
+            count++;
+        }
+        if (buffer.position() != end || buffer.getInt() != count) {
+            throw new IOException("Snapshot " + file + " is corrupt (key count mismatch)");
+        }
+        return firstSeq;
+    }
+
+    // Geçerli kayıtları sırayla uygular; sıfır uzunluk (logun sonu) ya da bozuk kayıtta durur
+    private void replaySegment(File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            CRC32 checksum = new CRC32();
+            byte[] payload = new byte[64];
+            while (buffer.remaining() >= RECORD_HEADER) {
+                int length = buffer.getInt();
+                int expected = buffer.getInt();
+                if (length < 4 || length > buffer.remaining()) break;
+                if (payload.length < length) payload = new byte[length];
+                buffer.get(payload, 0, length);
+                checksum.reset();
+                checksum.update(payload, 0, length);
+                if ((int) checksum.getValue() != expected) break;
+                String key = new String(payload, 0, length - 4, StandardCharsets.UTF_8);
+                store.put(key, ByteBuffer.wrap(payload, length - 4, 4).getInt());
+            }
+        }
+    }
+
+    private List<Long> segmentNumbers() {
+        List<Long> numbers = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) return numbers;
+        for (String name : names) {
+            if (!name.startsWith("wal-") || !name.endsWith(".log")) continue;
+            try {
+                numbers.add(Long.parseLong(name.substring(4, name.length() - 4)));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private void deleteSegmentsBefore(long seq) {
+        for (long n : segmentNumbers()) {
+            if (n < seq && !segmentFile(n).delete()) {
+                System.err.println("Could not delete " + segmentFile(n));
+            }
+        }
+    }
+
+    private File segmentFile(long seq) {
+        return new File(directory, String.format(Locale.ROOT, "wal-%016d.log", seq));
+    }
+
+    // Yeni oluşturulan / taşınan dosyaların dizin kaydı da kalıcı olsun (Linux'ta çalışır, diğerlerinde atlanır)
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}